@@ -2,11 +2,26 @@ package org.embulk.input.cloudwatch_logs;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.RateLimiter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
@@ -17,27 +32,44 @@ import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnConfig;
+import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.InputPlugin;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.Schema;
-import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.SchemaConfig;
 import org.embulk.spi.type.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.retry.PredefinedRetryPolicies;
 
 import com.amazonaws.services.logs.AWSLogs;
 import com.amazonaws.services.logs.AWSLogsClientBuilder;
+import com.amazonaws.services.logs.model.DescribeLogGroupsRequest;
+import com.amazonaws.services.logs.model.DescribeLogGroupsResult;
 import com.amazonaws.services.logs.model.DescribeLogStreamsRequest;
 import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.FilterLogEventsRequest;
+import com.amazonaws.services.logs.model.FilterLogEventsResult;
+import com.amazonaws.services.logs.model.FilteredLogEvent;
 import com.amazonaws.services.logs.model.GetLogEventsRequest;
 import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogGroup;
 import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OrderBy;
 import com.amazonaws.services.logs.model.OutputLogEvent;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 
 import org.embulk.input.cloudwatch_logs.aws.AwsCredentials;
 import org.embulk.input.cloudwatch_logs.aws.AwsCredentialsTask;
@@ -46,7 +78,32 @@ import org.embulk.input.cloudwatch_logs.utils.DateUtils;
 public abstract class AbstractCloudwatchLogsInputPlugin
         implements InputPlugin
 {
-    private static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    static final String MESSAGE_FORMAT_TEXT = "text";
+    static final String MESSAGE_FORMAT_JSON = "json";
+    static final String MESSAGE_FORMAT_LOGFMT = "logfmt";
+    static final String MESSAGE_FORMAT_LAMBDA_REPORT = "lambda_report";
+    static final String MESSAGE_FORMAT_REGEX = "regex";
+    static final String MESSAGE_ENCODING_TEXT = "text";
+    static final String MESSAGE_ENCODING_GZIP_BASE64 = "gzip_base64";
+    // Number of log streams read by `embulk preview`. Only their first page is fetched.
+    private static final int PREVIEW_LOG_STREAMS = 3;
+    private static final int GUESS_LOG_STREAMS = 8;
+    // Pages of DescribeLogStreams listed by guess to find streams with events.
+    private static final int GUESS_LIST_PAGES = 10;
+    private static final int GUESS_EVENTS_PER_LOG_STREAM = 100;
+    private static final int GUESS_THREADS = 4;
+    private static final long GUESS_TIME_BUDGET_MILLIS = 20 * 1000;
+
+    // lastEventTimestamp of DescribeLogStreams is updated eventually, within an hour.
+    private static final long LAST_EVENT_TIMESTAMP_LAG_MILLIS = 60 * 60 * 1000;
+    private static final int SPOOL_SEGMENT_BYTES = 16 * 1024 * 1024;
+    // How long a task waits for the fetcher of `spool_dir` to stop after the spool is closed.
+    private static final long SPOOL_FETCHER_STOP_MILLIS = 10 * 1000;
+    // Maximum logStreamNames of a FilterLogEvents request.
+    private static final int MAX_FILTER_LOG_STREAM_NAMES = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractCloudwatchLogsInputPlugin.class);
 
     public interface PluginTask
             extends AwsCredentialsTask, Task
@@ -77,6 +134,234 @@ public abstract class AbstractCloudwatchLogsInputPlugin
         @Config("column_name")
         @ConfigDefault("\"message\"")
         public String getColumnName();
+
+        @Config("max_records")
+        @ConfigDefault("null")
+        public Optional<Long> getMaxRecords();
+
+        @Config("sample_rate")
+        @ConfigDefault("1.0")
+        public double getSampleRate();
+
+        @Config("message_format")
+        @ConfigDefault("\"text\"")
+        public String getMessageFormat();
+
+        @Config("columns")
+        @ConfigDefault("[]")
+        public SchemaConfig getColumns();
+
+        @Config("message_encoding")
+        @ConfigDefault("\"text\"")
+        public String getMessageEncoding();
+
+        @Config("message_pattern")
+        @ConfigDefault("null")
+        public Optional<String> getMessagePattern();
+
+        @Config("include_pattern")
+        @ConfigDefault("null")
+        public Optional<String> getIncludePattern();
+
+        @Config("exclude_patterns")
+        @ConfigDefault("[]")
+        public List<String> getExcludePatterns();
+
+        @Config("stop_on_invalid_record")
+        @ConfigDefault("false")
+        public boolean getStopOnInvalidRecord();
+
+        @Config("ordered")
+        @ConfigDefault("false")
+        public boolean getOrdered();
+
+        @Config("max_open_streams")
+        @ConfigDefault("100")
+        public int getMaxOpenStreams();
+
+        @Config("streaming_decode")
+        @ConfigDefault("false")
+        public boolean getStreamingDecode();
+
+        @Config("max_retries")
+        @ConfigDefault("5")
+        public int getMaxRetries();
+
+        @Config("retry_budget")
+        @ConfigDefault("100")
+        public int getRetryBudget();
+
+        @Config("initial_retry_wait_millis")
+        @ConfigDefault("200")
+        public long getInitialRetryWaitMillis();
+
+        @Config("max_retry_wait_millis")
+        @ConfigDefault("20000")
+        public long getMaxRetryWaitMillis();
+
+        @Config("circuit_breaker_threshold")
+        @ConfigDefault("10")
+        public int getCircuitBreakerThreshold();
+
+        @Config("circuit_breaker_wait_millis")
+        @ConfigDefault("30000")
+        public long getCircuitBreakerWaitMillis();
+
+        @Config("stream_catalog_path")
+        @ConfigDefault("null")
+        public Optional<String> getStreamCatalogPath();
+
+        public void setStreamCatalogPath(Optional<String> path);
+
+        @Config("stream_catalog_ttl_seconds")
+        @ConfigDefault("86400")
+        public long getStreamCatalogTtlSeconds();
+
+        @Config("requests_per_second")
+        @ConfigDefault("null")
+        public Optional<Double> getRequestsPerSecond();
+
+        @Config("plan_only")
+        @ConfigDefault("false")
+        public boolean getPlanOnly();
+
+        @Config("incremental")
+        @ConfigDefault("false")
+        public boolean getIncremental();
+
+        @Config("incremental_lookback_seconds")
+        @ConfigDefault("300")
+        public long getIncrementalLookbackSeconds();
+
+        @Config("last_event_time")
+        @ConfigDefault("null")
+        public Optional<Long> getLastEventTime();
+
+        @Config("last_ingestion_time")
+        @ConfigDefault("null")
+        public Optional<Long> getLastIngestionTime();
+
+        @Config("adaptive_page_size")
+        @ConfigDefault("false")
+        public boolean getAdaptivePageSize();
+
+        @Config("target_page_latency_millis")
+        @ConfigDefault("2000")
+        public long getTargetPageLatencyMillis();
+
+        @Config("spool_dir")
+        @ConfigDefault("null")
+        public Optional<String> getSpoolDir();
+
+        @Config("spool_max_bytes")
+        @ConfigDefault("1073741824")
+        public long getSpoolMaxBytes();
+
+        @Config("role_arn")
+        @ConfigDefault("null")
+        public Optional<String> getRoleArn();
+
+        public void setRoleArn(Optional<String> roleArn);
+
+        @Config("role_external_id")
+        @ConfigDefault("null")
+        public Optional<String> getRoleExternalId();
+
+        public void setRoleExternalId(Optional<String> externalId);
+
+        @Config("role_session_name")
+        @ConfigDefault("\"embulk-input-cloudwatch_logs\"")
+        public String getRoleSessionName();
+
+        @Config("targets")
+        @ConfigDefault("[]")
+        public List<TargetTask> getTargets();
+
+        @Config("schedule_streams")
+        @ConfigDefault("false")
+        public boolean getScheduleStreams();
+
+        @Config("split_stream_bytes")
+        @ConfigDefault("1073741824")
+        public long getSplitStreamBytes();
+
+        @Config("batch_stream_bytes")
+        @ConfigDefault("16777216")
+        public long getBatchStreamBytes();
+
+        @Config("prefetch_streams")
+        @ConfigDefault("4")
+        public int getPrefetchStreams();
+
+        @Config("max_streams_per_batch")
+        @ConfigDefault("100")
+        public int getMaxStreamsPerBatch();
+
+        // Set by transaction() when schedule_streams is enabled. One for each task.
+        @Config("scheduled_works")
+        @ConfigDefault("[]")
+        public List<ScheduledWork> getScheduledWorks();
+
+        public void setScheduledWorks(List<ScheduledWork> works);
+
+        // Set by transaction() when schedule_streams is enabled. The time log streams were listed.
+        @Config("scheduled_at")
+        @ConfigDefault("null")
+        public Optional<Long> getScheduledAt();
+
+        public void setScheduledAt(Optional<Long> scheduledAt);
+
+        @Config("stream_metrics")
+        @ConfigDefault("false")
+        public boolean getStreamMetrics();
+
+        @Config("stream_metrics_path")
+        @ConfigDefault("null")
+        public Optional<String> getStreamMetricsPath();
+    }
+
+    /**
+     * A region and account to read the log group from. Options which are not set
+     * are taken from the top level of the configuration.
+     */
+    public interface TargetTask
+            extends Task
+    {
+        @Config("region")
+        @ConfigDefault("null")
+        public Optional<String> getRegion();
+
+        @Config("account")
+        @ConfigDefault("null")
+        public Optional<String> getAccount();
+
+        @Config("role_arn")
+        @ConfigDefault("null")
+        public Optional<String> getRoleArn();
+
+        @Config("role_external_id")
+        @ConfigDefault("null")
+        public Optional<String> getRoleExternalId();
+
+        @Config("authentication_method")
+        @ConfigDefault("null")
+        public Optional<String> getAuthenticationMethod();
+
+        @Config("aws_access_key_id")
+        @ConfigDefault("null")
+        public Optional<String> getAwsAccessKeyId();
+
+        @Config("aws_secret_access_key")
+        @ConfigDefault("null")
+        public Optional<String> getAwsSecretAccessKey();
+
+        @Config("aws_session_token")
+        @ConfigDefault("null")
+        public Optional<String> getAwsSessionToken();
+
+        @Config("aws_profile_name")
+        @ConfigDefault("null")
+        public Optional<String> getAwsProfileName();
     }
 
     protected abstract Class<? extends PluginTask> getTaskClass();
@@ -87,97 +372,796 @@ public abstract class AbstractCloudwatchLogsInputPlugin
     {
         PluginTask task = config.loadConfig(getTaskClass());
 
-        Schema schema = new Schema.Builder()
-                .add("timestamp", Types.TIMESTAMP)
-                .add(task.getColumnName(), Types.STRING)
-                .build();
-        int taskCount = 1;  // number of run() method calls
-        String time_range_format = DEFAULT_DATE_FORMAT;
-        if (task.getTimeRangeFormat().isPresent()) {
-            time_range_format = task.getTimeRangeFormat().get();
+        Schema schema = buildSchema(task);
+        // Each target is read by its own task.
+        int taskCount = Math.max(1, task.getTargets().size());  // number of run() method calls
+        Long startTime = getStartTimeMillis(task);
+        Long endTime = getEndTimeMillis(task);
+        if (startTime != null && endTime != null) {
+            if (endTime < startTime) {
+                throw new ConfigException(String.format("endTime(%s) must not be earlier than startTime(%s).",
+                                                        task.getEndTime().get(),
+                                                        task.getStartTime().get()));
+            }
+        }
+        if (task.getMaxRecords().isPresent() && task.getMaxRecords().get() <= 0) {
+            throw new ConfigException(String.format("max_records(%d) must be greater than 0.",
+                                                    task.getMaxRecords().get()));
+        }
+        if (task.getSampleRate() <= 0.0 || task.getSampleRate() > 1.0) {
+            throw new ConfigException(String.format("sample_rate(%s) must be greater than 0.0 and less than or equal to 1.0.",
+                                                    task.getSampleRate()));
+        }
+        if (task.getMaxRetries() < 0 || task.getRetryBudget() < 0) {
+            throw new ConfigException("max_retries and retry_budget must not be negative.");
+        }
+        if (task.getInitialRetryWaitMillis() <= 0 || task.getMaxRetryWaitMillis() < task.getInitialRetryWaitMillis()) {
+            throw new ConfigException("initial_retry_wait_millis must be greater than 0 and not greater than max_retry_wait_millis.");
+        }
+        if (task.getCircuitBreakerThreshold() <= 0) {
+            throw new ConfigException(String.format("circuit_breaker_threshold(%d) must be greater than 0.",
+                                                    task.getCircuitBreakerThreshold()));
+        }
+        if (task.getMaxOpenStreams() <= 0) {
+            throw new ConfigException(String.format("max_open_streams(%d) must be greater than 0.",
+                                                    task.getMaxOpenStreams()));
+        }
+        if (task.getIncremental() && task.getMaxRecords().isPresent()) {
+            // Unread streams may have events older than the watermark of the streams read.
+            throw new ConfigException("max_records can not be used with incremental.");
+        }
+        if (task.getTargetPageLatencyMillis() <= 0) {
+            throw new ConfigException(String.format("target_page_latency_millis(%d) must be greater than 0.",
+                                                    task.getTargetPageLatencyMillis()));
+        }
+        if (task.getIncrementalLookbackSeconds() < 0) {
+            throw new ConfigException(String.format("incremental_lookback_seconds(%d) must not be negative.",
+                                                    task.getIncrementalLookbackSeconds()));
+        }
+        if (task.getRequestsPerSecond().isPresent() && task.getRequestsPerSecond().get() <= 0) {
+            throw new ConfigException(String.format("requests_per_second(%s) must be greater than 0.",
+                                                    task.getRequestsPerSecond().get()));
+        }
+
+        if (task.getIncremental() && !task.getTargets().isEmpty()) {
+            // A single watermark can not track targets which are read at different speeds.
+            throw new ConfigException("incremental can not be used with targets.");
+        }
+        for (TargetTask target : task.getTargets()) {
+            if (target.getRoleExternalId().isPresent() && !target.getRoleArn().isPresent() && !task.getRoleArn().isPresent()) {
+                throw new ConfigException("role_external_id of a target requires role_arn.");
+            }
+        }
+        if (task.getRoleExternalId().isPresent() && !task.getRoleArn().isPresent() && task.getTargets().isEmpty()) {
+            throw new ConfigException("role_external_id requires role_arn.");
+        }
+        if (task.getMessageFormat().equals(MESSAGE_FORMAT_REGEX)) {
+            if (!task.getMessagePattern().isPresent()) {
+                throw new ConfigException("message_pattern must be specified when message_format is regex.");
+            }
+            // Checks that every column has a capture group.
+            new RegexMessageParser(schema, task.getColumns(), task.getMessagePattern().get(), DEFAULT_DATE_FORMAT);
+        }
+        // Checks the syntax of the patterns.
+        MessageFilter.of(task);
+        if (!task.getMessageEncoding().equals(MESSAGE_ENCODING_TEXT)
+                && !task.getMessageEncoding().equals(MESSAGE_ENCODING_GZIP_BASE64)) {
+            throw new ConfigException(String.format("Unknown message_encoding '%s'. Supported encodings are text and gzip_base64.",
+                                                    task.getMessageEncoding()));
+        }
+        if (task.getScheduleStreams()) {
+            if (!task.getUseLogStreamNamePrefix() || task.getOrdered()) {
+                throw new ConfigException("schedule_streams requires use_log_stream_name_prefix and can not be used with ordered.");
+            }
+            if (task.getSplitStreamBytes() <= 0 || task.getBatchStreamBytes() < 0) {
+                throw new ConfigException("split_stream_bytes must be greater than 0 and batch_stream_bytes must not be negative.");
+            }
+            if (task.getMaxStreamsPerBatch() <= 0 || task.getMaxStreamsPerBatch() > MAX_FILTER_LOG_STREAM_NAMES) {
+                throw new ConfigException(String.format("max_streams_per_batch(%d) must be between 1 and %d.",
+                                                        task.getMaxStreamsPerBatch(), MAX_FILTER_LOG_STREAM_NAMES));
+            }
+        }
+        if (task.getPrefetchStreams() < 0) {
+            throw new ConfigException(String.format("prefetch_streams(%d) must not be negative.",
+                                                    task.getPrefetchStreams()));
+        }
+        if (task.getSpoolDir().isPresent() && task.getSpoolMaxBytes() < 2L * SPOOL_SEGMENT_BYTES) {
+            throw new ConfigException(String.format("spool_max_bytes(%d) must be at least %d.",
+                                                    task.getSpoolMaxBytes(), 2L * SPOOL_SEGMENT_BYTES));
+        }
+
+        if (task.getScheduleStreams()) {
+            task.setScheduledAt(Optional.of(System.currentTimeMillis()));
+            List<ScheduledWork> works = new ArrayList<>();
+            if (task.getTargets().isEmpty()) {
+                works.addAll(schedule(task, 0));
+            }
+            for (int i = 0; i < task.getTargets().size(); i++) {
+                PluginTask targetTask = task.dump().loadTask(getTaskClass());
+                applyTarget(targetTask, targetTask.getTargets().get(i), i);
+                works.addAll(schedule(targetTask, i));
+            }
+            task.setScheduledWorks(works);
+            taskCount = works.size();
+            logger.info("Scheduled {} tasks for log group {}", taskCount, task.getLogGroupName());
+        }
+
+        if (task.getPlanOnly()) {
+            if (task.getTargets().isEmpty()) {
+                plan(task, taskCount);
+            }
+            for (int i = 0; i < task.getTargets().size(); i++) {
+                PluginTask targetTask = task.dump().loadTask(getTaskClass());
+                applyTarget(targetTask, targetTask.getTargets().get(i), i);
+                plan(targetTask, 1);
+            }
+            // No task runs, so no event is fetched.
+            return resume(task.dump(), schema, 0, control);
+        }
+
+        return resume(task.dump(), schema, taskCount, control);
+    }
+
+    private List<ScheduledWork> schedule(PluginTask task, int targetIndex)
+    {
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, newLogsClient(task));
+        Long startTime = getStartTimeMillis(task);
+        Long endTime = getEndTimeMillis(task);
+        List<LogStream> listed = listLogStreams(task, drainer);
+        List<LogStream> logStreams = new ArrayList<>();
+        for (LogStream stream : listed) {
+            if (LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                logStreams.add(stream);
+            }
+        }
+        // Bytes of the log group are spread over all of its streams, including those out of the time range.
+        double bytesPerMilli = LoadPlanner.bytesPerMilli(listed, drainer.getLogGroupStoredBytes());
+        StreamScheduler scheduler = new StreamScheduler(startTime, endTime, task.getSplitStreamBytes(),
+                                                        task.getBatchStreamBytes(), task.getMaxStreamsPerBatch());
+        return scheduler.schedule(logStreams, targetIndex, bytesPerMilli);
+    }
+
+    private void plan(PluginTask task, int taskCount)
+    {
+        AWSLogs client = newLogsClient(task);
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
+        List<LogStream> logStreams;
+        if (task.getUseLogStreamNamePrefix()) {
+            logStreams = listLogStreams(task, drainer);
+        }
+        else {
+            logStreams = new ArrayList<>();
+            for (LogStream stream : drainer.describeLogStreams(null).getLogStreams()) {
+                if (stream.getLogStreamName().equals(task.getLogStreamName().orNull())) {
+                    logStreams.add(stream);
+                }
+            }
+        }
+        LoadPlanner planner = new LoadPlanner(getStartTimeMillis(task), getEndTimeMillis(task),
+                                              task.getRequestsPerSecond().or(Double.POSITIVE_INFINITY),
+                                              LoadPlanner.GET_LOG_EVENTS_QUOTA, Runtime.getRuntime().availableProcessors() * 2);
+        // storedBytes of log streams is 0, so the plan spreads storedBytes of the log group over them.
+        Long logGroupBytes = drainer.getLogGroupStoredBytes();
+        LoadPlanner.Plan plan = planner.plan(logStreams, taskCount, LAST_EVENT_TIMESTAMP_LAG_MILLIS, logGroupBytes);
+        for (String line : plan.report(task.getLogGroupName())) {
+            logger.info(line);
+        }
+    }
+
+    /**
+     * In incremental mode, events from `incremental_lookback_seconds` before the last event
+     * time are read again to find events which were ingested late.
+     */
+    static Long getStartTimeMillis(PluginTask task)
+    {
+        Long startTime = parseTimeMillis(task, task.getStartTime());
+        if (task.getIncremental() && task.getLastEventTime().isPresent()) {
+            long lookback = task.getLastEventTime().get() - task.getIncrementalLookbackSeconds() * 1000;
+            if (startTime == null || startTime < lookback) {
+                startTime = lookback;
+            }
+        }
+        return startTime;
+    }
+
+    static Long getEndTimeMillis(PluginTask task)
+    {
+        return parseTimeMillis(task, task.getEndTime());
+    }
+
+    private static Long parseTimeMillis(PluginTask task, Optional<String> time)
+    {
+        if (!time.isPresent()) {
+            return null;
+        }
+        String time_range_format = DEFAULT_DATE_FORMAT;
+        if (task.getTimeRangeFormat().isPresent()) {
+            time_range_format = task.getTimeRangeFormat().get();
+        }
+        Date date = DateUtils.parseDateStr(time.get(), Collections.singletonList(time_range_format));
+        return date.getTime();
+    }
+
+    protected Schema buildSchema(PluginTask task)
+    {
+        Schema schema = buildMessageSchema(task);
+        if (task.getTargets().isEmpty()) {
+            return schema;
+        }
+        List<Column> columns = new ArrayList<>(schema.getColumns());
+        for (String name : new String[] {"region", "account"}) {
+            for (Column column : columns) {
+                if (column.getName().equals(name)) {
+                    throw new ConfigException(String.format("Column name '%s' is reserved when targets are set.", name));
+                }
+            }
+        }
+        columns.add(new Column(columns.size(), "region", Types.STRING));
+        columns.add(new Column(columns.size(), "account", Types.STRING));
+        return new Schema(columns);
+    }
+
+    private Schema buildMessageSchema(PluginTask task)
+    {
+        switch (task.getMessageFormat()) {
+        case MESSAGE_FORMAT_TEXT:
+            return new Schema.Builder()
+                    .add("timestamp", Types.TIMESTAMP)
+                    .add(task.getColumnName(), Types.STRING)
+                    .build();
+        case MESSAGE_FORMAT_JSON:
+        case MESSAGE_FORMAT_LOGFMT:
+        case MESSAGE_FORMAT_LAMBDA_REPORT:
+        case MESSAGE_FORMAT_REGEX: {
+            if (task.getColumns().getColumns().isEmpty()) {
+                throw new ConfigException(String.format("columns must be specified when message_format is %s.",
+                                                        task.getMessageFormat()));
+            }
+            List<Column> columns = new ArrayList<>();
+            columns.add(new Column(0, "timestamp", Types.TIMESTAMP));
+            for (ColumnConfig columnConfig : task.getColumns().getColumns()) {
+                if ("timestamp".equals(columnConfig.getName())) {
+                    throw new ConfigException("Column name 'timestamp' is reserved for the event timestamp.");
+                }
+                columns.add(new Column(columns.size(), columnConfig.getName(), columnConfig.getType()));
+            }
+            return new Schema(columns);
+        }
+        default:
+            throw new ConfigException(String.format("Unknown message_format '%s'. Supported formats are text, json, logfmt, lambda_report and regex.",
+                                                    task.getMessageFormat()));
+        }
+    }
+
+    @Override
+    public ConfigDiff resume(TaskSource taskSource,
+            Schema schema, int taskCount,
+            InputPlugin.Control control)
+    {
+        List<TaskReport> taskReports = control.run(taskSource, schema, taskCount);
+
+        ConfigDiff configDiff = Exec.newConfigDiff();
+        PluginTask task = taskSource.loadTask(getTaskClass());
+        if (task.getIncremental()) {
+            Long lastEventTime = task.getLastEventTime().orNull();
+            Long newestIngestionTime = null;
+            long fetchStartedAt = Long.MAX_VALUE;
+            for (TaskReport taskReport : taskReports) {
+                lastEventTime = max(lastEventTime, taskReport, "last_event_time");
+                newestIngestionTime = max(newestIngestionTime, taskReport, "last_ingestion_time");
+                if (taskReport.has("fetch_started_at")) {
+                    fetchStartedAt = Math.min(fetchStartedAt, taskReport.get(Long.class, "fetch_started_at"));
+                }
+            }
+            Long lastIngestionTime = task.getLastIngestionTime().orNull();
+            if (fetchStartedAt != Long.MAX_VALUE) {
+                lastIngestionTime = IncrementalWatermark.nextIngestionTime(lastIngestionTime, newestIngestionTime, fetchStartedAt);
+            }
+            if (lastEventTime != null) {
+                configDiff.set("last_event_time", lastEventTime);
+            }
+            if (lastIngestionTime != null) {
+                configDiff.set("last_ingestion_time", lastIngestionTime);
+            }
+        }
+        if (task.getStreamMetricsPath().isPresent()) {
+            List<Map<String, Object>> streamMetrics = new ArrayList<>();
+            for (TaskReport taskReport : taskReports) {
+                if (taskReport.has(StreamMetrics.TASK_REPORT_KEY)) {
+                    streamMetrics.addAll(streamMetrics(taskReport));
+                }
+            }
+            Path path = Paths.get(task.getStreamMetricsPath().get());
+            try {
+                StreamMetrics.writePrometheus(path, task.getLogGroupName(), streamMetrics);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            logger.info("Wrote metrics of {} log streams to {}", streamMetrics.size(), path);
+        }
+        return configDiff;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> streamMetrics(TaskReport taskReport)
+    {
+        // Values are read back from JSON, so numbers may be Integer or Long.
+        return taskReport.get(List.class, StreamMetrics.TASK_REPORT_KEY);
+    }
+
+    private static Long max(Long current, TaskReport taskReport, String key)
+    {
+        if (!taskReport.has(key)) {
+            return current;
+        }
+        long value = taskReport.get(Long.class, key);
+        return current == null ? value : Math.max(current, value);
+    }
+
+    @Override
+    public void cleanup(TaskSource taskSource,
+            Schema schema, int taskCount,
+            List<TaskReport> successTaskReports)
+    {
+        // Do nothing.
+    }
+
+    @Override
+    public TaskReport run(TaskSource taskSource,
+            Schema schema, int taskIndex,
+            PageOutput output)
+    {
+        PluginTask task = taskSource.loadTask(getTaskClass());
+        ScheduledWork work = null;
+        int targetIndex = taskIndex;
+        if (!task.getScheduledWorks().isEmpty()) {
+            work = task.getScheduledWorks().get(taskIndex);
+            targetIndex = work.getTarget();
+        }
+        TargetTask target = null;
+        if (!task.getTargets().isEmpty()) {
+            target = task.getTargets().get(targetIndex);
+            applyTarget(task, target, targetIndex);
+        }
+
+        // The client is built when the first request needs it. With streaming_decode and
+        // log_stream_name, no request needs it.
+        Supplier<AWSLogs> client = Suppliers.memoize(() -> newLogsClient(task));
+        RecordSampler sampler = new RecordSampler(task, Exec.isPreview());
+        // Scheduled tasks read the streams listed by the transaction.
+        long fetchStartedAt = task.getScheduledAt().or(System.currentTimeMillis());
+        StreamMetrics metrics = new StreamMetrics(task.getStreamMetrics() || task.getStreamMetricsPath().isPresent());
+        String region = null;
+        String account = null;
+        try (final StreamingLogEventsClient streamingClient = task.getStreamingDecode() ? newStreamingLogEventsClient(task) : null;
+             final PageBuilder pageBuilder = getPageBuilder(schema, FlightRecorderEvents.traced(output))) {
+            CloudWatchLogsDrainer drainer;
+            LogEventWriter writer;
+            if (target == null) {
+                drainer = new CloudWatchLogsDrainer(task, client, streamingClient, task.getLogGroupName());
+                writer = new LogEventWriter(task, schema, pageBuilder, sampler);
+            }
+            else {
+                region = getRegion(task, target);
+                account = getAccount(task, target);
+                // Throttling of one region or account does not open the circuit of the others.
+                drainer = new CloudWatchLogsDrainer(task, client, streamingClient,
+                                                    task.getLogGroupName() + "@" + region + "/" + account);
+                writer = new LogEventWriter(task, schema, pageBuilder, sampler, region, account);
+            }
+            try {
+                if (task.getSpoolDir().isPresent()) {
+                    fetchThroughSpool(task, drainer, sampler, metrics, work, writer);
+                }
+                else {
+                    fetch(task, drainer, sampler, metrics, work, writer);
+                }
+            }
+            finally {
+                writer.close();
+            }
+
+            pageBuilder.finish();
+
+            TaskReport taskReport = Exec.newTaskReport();
+            if (task.getIncremental()) {
+                // Caps last_ingestion_time, see IncrementalWatermark.
+                taskReport.set("fetch_started_at", fetchStartedAt);
+            }
+            if (writer.getLastEventTime() != null) {
+                taskReport.set("last_event_time", writer.getLastEventTime());
+                taskReport.set("last_ingestion_time", writer.getLastIngestionTime());
+            }
+            if (metrics.isEnabled()) {
+                taskReport.set(StreamMetrics.TASK_REPORT_KEY, metrics.toReport(System.currentTimeMillis(), region, account));
+            }
+            return taskReport;
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Applies the options of a target to the task of the target.
+     * Subclasses apply the options which they define, such as the region.
+     * @param task the task which runs for the target
+     * @param target Embulk plugin target
+     * @param targetIndex the index of the target
+     */
+    protected void applyTarget(PluginTask task, TargetTask target, int targetIndex)
+    {
+        if (target.getAuthenticationMethod().isPresent()) {
+            task.setAuthenticationMethod(target.getAuthenticationMethod().get());
+            task.setAwsAccessKeyId(java.util.Optional.ofNullable(target.getAwsAccessKeyId().orNull()));
+            task.setAwsSecretAccessKey(java.util.Optional.ofNullable(target.getAwsSecretAccessKey().orNull()));
+            task.setAwsSessionToken(java.util.Optional.ofNullable(target.getAwsSessionToken().orNull()));
+            task.setAwsProfileName(java.util.Optional.ofNullable(target.getAwsProfileName().orNull()));
+        }
+        if (target.getRoleArn().isPresent()) {
+            task.setRoleArn(target.getRoleArn());
+            task.setRoleExternalId(target.getRoleExternalId());
+        }
+        if (task.getStreamCatalogPath().isPresent()) {
+            // The catalog is kept for each target.
+            task.setStreamCatalogPath(Optional.of(task.getStreamCatalogPath().get() + "." + targetIndex));
+        }
+    }
+
+    /**
+     * @return the region of the target for the region column
+     */
+    protected String getRegion(PluginTask task, TargetTask target)
+    {
+        return target.getRegion().orNull();
+    }
+
+    /**
+     * @return the `account` of the target, or the account in the ARN of its role
+     */
+    static String getAccount(PluginTask task, TargetTask target)
+    {
+        if (target.getAccount().isPresent()) {
+            return target.getAccount().get();
+        }
+        if (task.getRoleArn().isPresent()) {
+            // arn:aws:iam::123456789012:role/name
+            String[] parts = task.getRoleArn().get().split(":", 6);
+            if (parts.length == 6 && !parts[4].isEmpty()) {
+                return parts[4];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param work the streams of this task with `schedule_streams`, or null
+     */
+    @VisibleForTesting
+    void fetch(PluginTask task, CloudWatchLogsDrainer drainer, RecordSampler sampler, StreamMetrics metrics,
+            ScheduledWork work, LogEventSink sink)
+    {
+        if (work != null) {
+            drainer.setTimeRange(work.getStartTime(), work.getEndTime());
+            if (work.isBatch()) {
+                readLogStreams(drainer, work.getLogStreamNames(), sink, metrics, sampler.isPreview());
+            }
+            else {
+                String logStreamName = work.getLogStreamNames().get(0);
+                readLogStream(drainer, logStreamName, metrics.track(logStreamName, sink), sampler.isPreview());
+            }
+            return;
+        }
+        // Streams without events in the time range are skipped.
+        Long startTime = getStartTimeMillis(task);
+        Long endTime = getEndTimeMillis(task);
+        if (task.getUseLogStreamNamePrefix() && task.getOrdered()) {
+            // All streams are needed to decide when each of them joins the merge.
+            List<LogStream> logStreams = new ArrayList<>();
+            for (LogStream stream : listLogStreams(task, drainer)) {
+                if (LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                    metrics.listed(stream);
+                    logStreams.add(stream);
+                }
+            }
+            new OrderedLogStreamMerger(drainer, task.getMaxOpenStreams(), sampler.isPreview())
+                    .merge(logStreams, sink, metrics);
+        }
+        else if (task.getUseLogStreamNamePrefix() && task.getStreamCatalogPath().isPresent()) {
+            int streamCount = 0;
+            for (LogStream stream : listLogStreams(task, drainer)) {
+                if (!sampler.wantsMoreStreams(streamCount)) {
+                    break;
+                }
+                if (!LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                    continue;
+                }
+                metrics.listed(stream);
+                if (readLogStream(drainer, stream.getLogStreamName(), metrics.track(stream.getLogStreamName(), sink),
+                                  sampler.isPreview())) {
+                    return;
+                }
+                streamCount++;
+            }
+        }
+        else if (task.getUseLogStreamNamePrefix() && task.getPrefetchStreams() > 0) {
+            // Preview reads only the first few streams, so it does not fetch pages of the others.
+            int window = sampler.isPreview() ? Math.min(task.getPrefetchStreams(), PREVIEW_LOG_STREAMS)
+                                             : task.getPrefetchStreams();
+            try (FirstPagePrefetcher prefetcher = new FirstPagePrefetcher(drainer, window)) {
+                fetchWithPrefetch(drainer, sampler, metrics, sink, prefetcher, startTime, endTime);
+            }
+        }
+        else if (task.getUseLogStreamNamePrefix()) {
+            // Streams are read while they are listed so that the listing can stop
+            // as soon as enough records are produced.
+            String streamsToken = null;
+            int streamCount = 0;
+            do {
+                DescribeLogStreamsResult streams = drainer.describeLogStreams(streamsToken);
+                for (LogStream stream : streams.getLogStreams()) {
+                    if (!sampler.wantsMoreStreams(streamCount)) {
+                        break;
+                    }
+                    if (!LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                        continue;
+                    }
+                    metrics.listed(stream);
+                    if (readLogStream(drainer, stream.getLogStreamName(), metrics.track(stream.getLogStreamName(), sink),
+                                      sampler.isPreview())) {
+                        return;
+                    }
+                    streamCount++;
+                }
+                streamsToken = streams.getNextToken();
+            } while (streamsToken != null && sampler.wantsMoreStreams(streamCount));
+        }
+        else {
+            String logStreamName = null;
+            if (task.getLogStreamName().isPresent()) {
+                logStreamName = task.getLogStreamName().get();
+                sink = metrics.track(logStreamName, sink);
+            }
+            readLogStream(drainer, logStreamName, sink, sampler.isPreview());
+        }
+    }
+
+    /**
+     * Reads streams while the next page of the listing and the first pages of the next
+     * streams are fetched in parallel.
+     */
+    private void fetchWithPrefetch(CloudWatchLogsDrainer drainer, RecordSampler sampler, StreamMetrics metrics,
+            LogEventSink sink, FirstPagePrefetcher prefetcher, Long startTime, Long endTime)
+    {
+        DescribeLogStreamsResult streams = drainer.describeLogStreams(null);
+        int streamCount = 0;
+        while (true) {
+            Future<DescribeLogStreamsResult> nextStreams = null;
+            if (streams.getNextToken() != null) {
+                nextStreams = prefetcher.describeLogStreams(streams.getNextToken());
+            }
+            List<String> logStreamNames = new ArrayList<>();
+            for (LogStream stream : streams.getLogStreams()) {
+                if (LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                    metrics.listed(stream);
+                    logStreamNames.add(stream.getLogStreamName());
+                    prefetcher.offer(stream.getLogStreamName());
+                }
+            }
+            for (String logStreamName : logStreamNames) {
+                if (!sampler.wantsMoreStreams(streamCount)) {
+                    return;
+                }
+                if (readLogStream(drainer, logStreamName, metrics.track(logStreamName, sink), sampler.isPreview(),
+                                  prefetcher.take(logStreamName))) {
+                    return;
+                }
+                streamCount++;
+            }
+            if (nextStreams == null || !sampler.wantsMoreStreams(streamCount)) {
+                return;
+            }
+            streams = FirstPagePrefetcher.get(nextStreams);
+        }
+    }
+
+    /**
+     * Fetches events on another thread into a spool on disk, so that a slow output
+     * does not stall the fetching and fetched events do not pile up on the heap.
+     */
+    @VisibleForTesting
+    void fetchThroughSpool(final PluginTask task, final CloudWatchLogsDrainer drainer,
+            final RecordSampler sampler, final StreamMetrics metrics, final ScheduledWork work, LogEventWriter writer)
+            throws IOException
+    {
+        final LogEventSpool spool = new LogEventSpool(Paths.get(task.getSpoolDir().get()),
+                                                      SPOOL_SEGMENT_BYTES, task.getSpoolMaxBytes());
+        Thread fetcher = new Thread(() -> {
+            try {
+                fetch(task, drainer, sampler, metrics, work, spool);
+                spool.finish();
+            }
+            catch (Throwable ex) {
+                spool.fail(ex);
+            }
+        }, "cloudwatch-logs-fetcher");
+        fetcher.setDaemon(true);
+        fetcher.start();
+        try {
+            spool.replay(writer);
         }
-        if (task.getStartTime().isPresent() && task.getEndTime().isPresent()) {
-            Date startTime = DateUtils.parseDateStr(task.getStartTime().get(),
-                                                    Collections.singletonList(time_range_format));
-            Date endTime = DateUtils.parseDateStr(task.getEndTime().get(),
-                                                  Collections.singletonList(time_range_format));
-            if (endTime.before(startTime)) {
-                throw new ConfigException(String.format("endTime(%s) must not be earlier than startTime(%s).",
-                                                        task.getEndTime().get(),
-                                                        task.getStartTime().get()));
+        finally {
+            // Closing the spool stops the fetcher at its next event. The interrupt also stops
+            // its waits for a retry or the circuit breaker, which may take minutes.
+            spool.close();
+            fetcher.interrupt();
+            try {
+                fetcher.join(SPOOL_FETCHER_STOP_MILLIS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (fetcher.isAlive()) {
+                // A request blocked on the network ends with the socket timeout. The thread is a daemon.
+                logger.warn("The fetcher did not stop within {} ms after the spool was closed", SPOOL_FETCHER_STOP_MILLIS);
             }
         }
-
-        return resume(task.dump(), schema, taskCount, control);
     }
 
-    @Override
-    public ConfigDiff resume(TaskSource taskSource,
-            Schema schema, int taskCount,
-            InputPlugin.Control control)
+    /**
+     * Lists all log streams. With `stream_catalog_path`, only streams with events newer than
+     * the catalog are listed until the catalog expires.
+     */
+    private List<LogStream> listLogStreams(PluginTask task, CloudWatchLogsDrainer drainer)
     {
-        control.run(taskSource, schema, taskCount);
-        return Exec.newConfigDiff();
+        if (!task.getStreamCatalogPath().isPresent()) {
+            List<LogStream> logStreams = new ArrayList<>();
+            String streamsToken = null;
+            do {
+                DescribeLogStreamsResult streams = drainer.describeLogStreams(streamsToken);
+                logStreams.addAll(streams.getLogStreams());
+                streamsToken = streams.getNextToken();
+            } while (streamsToken != null);
+            return logStreams;
+        }
+
+        Path path = Paths.get(task.getStreamCatalogPath().get());
+        String prefix = task.getLogStreamName().or("");
+        long now = System.currentTimeMillis();
+        try {
+            LogStreamCatalog catalog = LogStreamCatalog.load(path);
+            if (catalog == null || !catalog.isFresh(task.getLogGroupName(), prefix, now, task.getStreamCatalogTtlSeconds() * 1000)) {
+                catalog = new LogStreamCatalog(task.getLogGroupName(), prefix, now);
+                String streamsToken = null;
+                do {
+                    DescribeLogStreamsResult streams = drainer.describeLogStreams(streamsToken);
+                    for (LogStream stream : streams.getLogStreams()) {
+                        catalog.put(stream);
+                    }
+                    streamsToken = streams.getNextToken();
+                } while (streamsToken != null);
+            }
+            else {
+                // Streams are listed from the latest one and the listing stops at the cached watermark.
+                long stopBefore = catalog.getWatermark() - LAST_EVENT_TIMESTAMP_LAG_MILLIS;
+                String streamsToken = null;
+                boolean reachedWatermark = false;
+                int updated = 0;
+                do {
+                    DescribeLogStreamsResult streams = drainer.describeRecentLogStreams(streamsToken);
+                    for (LogStream stream : streams.getLogStreams()) {
+                        Long lastEventTimestamp = stream.getLastEventTimestamp();
+                        if (lastEventTimestamp != null && lastEventTimestamp < stopBefore) {
+                            reachedWatermark = true;
+                            break;
+                        }
+                        if (stream.getLogStreamName().startsWith(prefix)) {
+                            catalog.put(stream);
+                            updated++;
+                        }
+                    }
+                    streamsToken = streams.getNextToken();
+                } while (!reachedWatermark && streamsToken != null);
+                logger.info("Updated {} log streams in the catalog {}", updated, path);
+            }
+            catalog.save(path);
+            return catalog.getLogStreams();
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
-    @Override
-    public void cleanup(TaskSource taskSource,
-            Schema schema, int taskCount,
-            List<TaskReport> successTaskReports)
+    /**
+     * @return true if the sink needs no more events
+     */
+    private boolean readLogStream(CloudWatchLogsDrainer drainer, String logStreamName, LogEventSink sink, boolean preview)
     {
-        // Do nothing.
+        return readLogStream(drainer, logStreamName, sink, preview, null);
     }
 
-    @Override
-    public TaskReport run(TaskSource taskSource,
-            Schema schema, int taskIndex,
-            PageOutput output)
+    /**
+     * @param firstPage the first page fetched in advance, or null
+     * @return true if the sink needs no more events
+     */
+    private boolean readLogStream(CloudWatchLogsDrainer drainer, String logStreamName, LogEventSink sink, boolean preview,
+            FirstPagePrefetcher.FirstPage firstPage)
     {
-        PluginTask task = taskSource.loadTask(getTaskClass());
-
-        AWSLogs client = newLogsClient(task);
-        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
-        if (task.getUseLogStreamNamePrefix()) {
-            List<LogStream> defaultLogStream = new ArrayList<LogStream>();
-            List<LogStream> logStreams = drainer.describeLogStreams(defaultLogStream, null);
-            String nextToken = null;
-            try (final PageBuilder pageBuilder = getPageBuilder(schema, output)) {
-                for (LogStream stream : logStreams) {
-                    String logStreamName = stream.getLogStreamName();
-                    GetLogEventsResult result = drainer.getEvents(logStreamName, nextToken);
-                    List<OutputLogEvent> events = result.getEvents();
-                    for (OutputLogEvent event : events) {
-                        pageBuilder.setTimestamp(0, Timestamp.ofEpochMilli(event.getTimestamp()));
-                        pageBuilder.setString(1, event.getMessage());
-
-                        pageBuilder.addRecord();
-                    }
-                    nextToken = result.getNextForwardToken();
-                }
-
-                pageBuilder.finish();
+        String nextToken = null;
+        PageSizeController pageSize;
+        if (firstPage != null) {
+            pageSize = firstPage.getPageSize();
+            if (writeEvents(firstPage.getResult(), sink)) {
+                return true;
+            }
+            String forwardToken = firstPage.getResult().getNextForwardToken();
+            if (preview || forwardToken == null) {
+                return false;
             }
+            nextToken = forwardToken;
         }
         else {
-            try (final PageBuilder pageBuilder = getPageBuilder(schema, output)) {
-                String logStreamName = null;
-                if (task.getLogStreamName().isPresent()) {
-                    logStreamName = task.getLogStreamName().get();
+            pageSize = drainer.newPageSizeController();
+        }
+        if (drainer.isStreaming()) {
+            while (true) {
+                StreamingLogEventsClient.PageEnd end = drainer.streamEvents(logStreamName, nextToken, sink, pageSize);
+                if (end.isStopped()) {
+                    return true;
                 }
-                GetLogEventsResult result = drainer.getEvents(logStreamName, null);
-                List<OutputLogEvent> events = result.getEvents();
-                for (OutputLogEvent event : events) {
-                    pageBuilder.setTimestamp(0, Timestamp.ofEpochMilli(event.getTimestamp()));
-                    pageBuilder.setString(1, event.getMessage());
-
-                    pageBuilder.addRecord();
+                String forwardToken = end.getNextForwardToken();
+                if (preview || forwardToken.equals(nextToken)) {
+                    return false;
                 }
+                nextToken = forwardToken;
+            }
+        }
+        while (true) {
+            GetLogEventsResult result = drainer.getEvents(logStreamName, nextToken, pageSize);
+            if (writeEvents(result, sink)) {
+                return true;
+            }
+            // GetLogEvents returns the same forward token again at the end of the stream.
+            String forwardToken = result.getNextForwardToken();
+            if (preview || forwardToken == null || forwardToken.equals(nextToken)) {
+                return false;
+            }
+            nextToken = forwardToken;
+        }
+    }
 
-                pageBuilder.finish();
+    private static boolean writeEvents(GetLogEventsResult result, LogEventSink sink)
+    {
+        for (OutputLogEvent event : result.getEvents()) {
+            long ingestionTime = event.getIngestionTime() != null ? event.getIngestionTime() : 0;
+            if (sink.write(event.getTimestamp(), ingestionTime, event.getMessage())) {
+                return true;
             }
         }
+        return false;
+    }
 
-        return Exec.newTaskReport();
+    /**
+     * Reads small streams together with one FilterLogEvents chain.
+     * @return true if the sink needs no more events
+     */
+    private boolean readLogStreams(CloudWatchLogsDrainer drainer, List<String> logStreamNames, LogEventSink sink,
+            StreamMetrics metrics, boolean preview)
+    {
+        String nextToken = null;
+        do {
+            FilterLogEventsResult result = drainer.filterEvents(logStreamNames, nextToken);
+            for (FilteredLogEvent event : result.getEvents()) {
+                long ingestionTime = event.getIngestionTime() != null ? event.getIngestionTime() : 0;
+                metrics.observe(event.getLogStreamName(), event.getTimestamp(), ingestionTime);
+                if (sink.write(event.getTimestamp(), ingestionTime, event.getMessage())) {
+                    return true;
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null && !preview);
+        return false;
     }
 
     /**
@@ -192,6 +1176,16 @@ public abstract class AbstractCloudwatchLogsInputPlugin
         return defaultLogsClientBuilder(task).build();
     }
 
+    /**
+     * Provide a client for `streaming_decode`, which needs the region of the endpoint.
+     * @param task Embulk plugin task
+     * @return StreamingLogEventsClient
+     */
+    protected StreamingLogEventsClient newStreamingLogEventsClient(PluginTask task)
+    {
+        throw new ConfigException("streaming_decode is not supported by this plugin");
+    }
+
     /**
      * A base builder for the subclasses to then customize.builder
      * @param task Embulk plugin
@@ -207,7 +1201,32 @@ public abstract class AbstractCloudwatchLogsInputPlugin
 
     protected AWSCredentialsProvider getCredentialsProvider(PluginTask task)
     {
-        return AwsCredentials.getAWSCredentialsProvider(task);
+        AWSCredentialsProvider provider = AwsCredentials.getAWSCredentialsProvider(task);
+        if (!task.getRoleArn().isPresent()) {
+            return provider;
+        }
+        AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
+                .withCredentials(provider)
+                .withEndpointConfiguration(getStsEndpointConfiguration(task))
+                .build();
+        STSAssumeRoleSessionCredentialsProvider.Builder builder =
+                new STSAssumeRoleSessionCredentialsProvider.Builder(task.getRoleArn().get(), task.getRoleSessionName())
+                        .withStsClient(sts);
+        if (task.getRoleExternalId().isPresent()) {
+            builder.withExternalId(task.getRoleExternalId().get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Provide the STS endpoint to assume `role_arn` with. Subclasses which know the region
+     * return its regional endpoint, so that roles of other partitions can be assumed.
+     * @param task Embulk plugin task
+     * @return EndpointConfiguration
+     */
+    protected AwsClientBuilder.EndpointConfiguration getStsEndpointConfiguration(PluginTask task)
+    {
+        return new AwsClientBuilder.EndpointConfiguration("https://sts.amazonaws.com", "us-east-1");
     }
 
     protected ClientConfiguration getClientConfiguration(PluginTask task)
@@ -227,7 +1246,124 @@ public abstract class AbstractCloudwatchLogsInputPlugin
     @Override
     public ConfigDiff guess(ConfigSource config)
     {
-        return Exec.newConfigDiff();
+        PluginTask task = config.loadConfig(getTaskClass());
+
+        AWSLogs client = newLogsClient(task);
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
+        List<String> logStreamNames;
+        if (task.getUseLogStreamNamePrefix() || !task.getLogStreamName().isPresent()) {
+            logStreamNames = listSampledLogStreams(task, drainer);
+        }
+        else {
+            logStreamNames = Collections.singletonList(task.getLogStreamName().get());
+        }
+        if (logStreamNames.isEmpty()) {
+            return Exec.newConfigDiff();
+        }
+
+        List<String> messages = sampleMessages(drainer, logStreamNames);
+        if (task.getMessageEncoding().equals(MESSAGE_ENCODING_GZIP_BASE64)) {
+            messages = decodeMessages(messages);
+        }
+        return new MessageFormatGuesser().guess(messages);
+    }
+
+    /**
+     * Picks the streams sampled by guess. Without a prefix, streams are listed from the one
+     * with the latest event, since streams listed by name, such as `YYYY/MM/DD/[version]...`
+     * of Lambda, start from the oldest. With a prefix, streams are listed by name and those
+     * without events in the time range are skipped.
+     */
+    private List<String> listSampledLogStreams(PluginTask task, CloudWatchLogsDrainer drainer)
+    {
+        boolean recent = !task.getLogStreamName().isPresent();
+        Long startTime = getStartTimeMillis(task);
+        Long endTime = getEndTimeMillis(task);
+        List<String> logStreamNames = new ArrayList<>();
+        String streamsToken = null;
+        int pages = 0;
+        do {
+            DescribeLogStreamsResult streams = recent
+                    ? drainer.describeRecentLogStreams(streamsToken)
+                    : drainer.describeLogStreams(streamsToken);
+            for (LogStream stream : streams.getLogStreams()) {
+                if (stream.getLastEventTimestamp() == null
+                        || !LoadPlanner.overlaps(stream, startTime, endTime, LAST_EVENT_TIMESTAMP_LAG_MILLIS)) {
+                    continue;
+                }
+                logStreamNames.add(stream.getLogStreamName());
+                if (logStreamNames.size() >= GUESS_LOG_STREAMS) {
+                    return logStreamNames;
+                }
+            }
+            streamsToken = streams.getNextToken();
+        } while (streamsToken != null && ++pages < GUESS_LIST_PAGES);
+        return logStreamNames;
+    }
+
+    /**
+     * @return the events in the sampled payloads of `message_encoding: gzip_base64`
+     */
+    private static List<String> decodeMessages(List<String> payloads)
+    {
+        final List<String> messages = new ArrayList<>();
+        try (SubscriptionPayloadDecoder decoder = new SubscriptionPayloadDecoder()) {
+            for (String payload : payloads) {
+                try {
+                    decoder.decode(payload, 0, 0, (timestamp, ingestionTime, message) -> {
+                        messages.add(message);
+                        return false;
+                    });
+                }
+                catch (DataException ex) {
+                    logger.warn("Skipped invalid gzip_base64 message for guess: {}", ex.getMessage());
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Fetches the latest events of the streams in parallel. Streams which are not
+     * sampled within the time budget are ignored.
+     */
+    private List<String> sampleMessages(final CloudWatchLogsDrainer drainer, List<String> logStreamNames)
+    {
+        List<Callable<List<OutputLogEvent>>> samplers = new ArrayList<>();
+        for (final String logStreamName : logStreamNames) {
+            samplers.add(new Callable<List<OutputLogEvent>>() {
+                @Override
+                public List<OutputLogEvent> call()
+                {
+                    return drainer.getSampleEvents(logStreamName, GUESS_EVENTS_PER_LOG_STREAM).getEvents();
+                }
+            });
+        }
+
+        List<String> messages = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(samplers.size(), GUESS_THREADS));
+        try {
+            for (Future<List<OutputLogEvent>> future : executor.invokeAll(samplers, GUESS_TIME_BUDGET_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (future.isCancelled()) {
+                    continue;
+                }
+                try {
+                    for (OutputLogEvent event : future.get()) {
+                        messages.add(event.getMessage());
+                    }
+                }
+                catch (ExecutionException ex) {
+                    logger.warn("Failed to sample log events for guess", ex.getCause());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return messages;
     }
 
     @VisibleForTesting
@@ -239,95 +1375,455 @@ public abstract class AbstractCloudwatchLogsInputPlugin
     @VisibleForTesting
     static class CloudWatchLogsDrainer
     {
-        private final AWSLogs client;
+        private final Supplier<AWSLogs> client;
+        private final StreamingLogEventsClient streamingClient;
         private final PluginTask task;
+        private final RequestRetrier retrier;
+        private final RateLimiter rateLimiter;
+        private Long startTime;
+        private Long endTime;
 
         public CloudWatchLogsDrainer(PluginTask task, AWSLogs client)
+        {
+            this(task, client, null);
+        }
+
+        public CloudWatchLogsDrainer(PluginTask task, AWSLogs client, StreamingLogEventsClient streamingClient)
+        {
+            this(task, Suppliers.ofInstance(client), streamingClient, task.getLogGroupName());
+        }
+
+        /**
+         * @param client supplies the client when the first request needs it
+         * @param breakerKey requests with the same key share a circuit breaker
+         */
+        public CloudWatchLogsDrainer(PluginTask task, Supplier<AWSLogs> client, StreamingLogEventsClient streamingClient, String breakerKey)
         {
             this.client = client;
+            this.streamingClient = streamingClient;
             this.task = task;
+            CircuitBreaker breaker = CircuitBreaker.of(breakerKey,
+                                                       task.getCircuitBreakerThreshold(),
+                                                       task.getCircuitBreakerWaitMillis());
+            this.retrier = new RequestRetrier(task.getMaxRetries(), task.getRetryBudget(),
+                                              task.getInitialRetryWaitMillis(), task.getMaxRetryWaitMillis(),
+                                              breaker);
+            this.rateLimiter = task.getRequestsPerSecond().isPresent()
+                    ? RateLimiter.create(task.getRequestsPerSecond().get())
+                    : null;
+            this.startTime = getStartTimeMillis(task);
+            this.endTime = getEndTimeMillis(task);
+        }
+
+        /**
+         * Narrows the time range of the following requests to the range of a scheduled task.
+         */
+        void setTimeRange(Long startTime, Long endTime)
+        {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        private void acquire()
+        {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+        }
+
+        GetLogEventsResult getEvents(String logStreamName, String nextToken)
+        {
+            return getLogEvents(newGetLogEventsRequest(logStreamName, nextToken));
+        }
+
+        /**
+         * @param pageSize controller of the page size of the stream, or null for the server default
+         */
+        GetLogEventsResult getEvents(String logStreamName, String nextToken, PageSizeController pageSize)
+        {
+            if (pageSize == null) {
+                return getEvents(logStreamName, nextToken);
+            }
+            GetLogEventsRequest request = newGetLogEventsRequest(logStreamName, nextToken)
+                    .withLimit(pageSize.getLimit());
+            long[] latency = new long[1];
+            GetLogEventsResult result = getLogEvents(request, latency);
+            long chars = 0;
+            for (OutputLogEvent event : result.getEvents()) {
+                chars += event.getMessage().length();
+            }
+            pageSize.observe(latency[0], result.getEvents().size(), chars);
+            return result;
+        }
+
+        /**
+         * @return a controller for a stream, or null if `adaptive_page_size` is disabled
+         */
+        PageSizeController newPageSizeController()
+        {
+            if (!task.getAdaptivePageSize()) {
+                return null;
+            }
+            return new PageSizeController(task.getTargetPageLatencyMillis());
+        }
+
+        boolean isStreaming()
+        {
+            return streamingClient != null;
+        }
+
+        /**
+         * Writes the events of a page into the sink while the response is being decoded.
+         * @return whether the sink stopped the page, or the next forward token
+         */
+        StreamingLogEventsClient.PageEnd streamEvents(String logStreamName, String nextToken, LogEventSink sink,
+                PageSizeController pageSize)
+        {
+            final GetLogEventsRequest request = newGetLogEventsRequest(logStreamName, nextToken);
+            if (pageSize != null) {
+                request.setLimit(pageSize.getLimit());
+            }
+            final ResumingSink resumingSink = new ResumingSink(sink, pageSize != null);
+            FlightRecorderEvents.ApiCallTrace trace = FlightRecorderEvents.beginApiCall("GetLogEvents",
+                    request.getLogGroupName(), logStreamName, nextToken);
+            final long[] latency = new long[1];
+            StreamingLogEventsClient.PageEnd end;
+            try {
+                end = retrier.call("GetLogEvents", trace, () -> {
+                    acquire();
+                    resumingSink.restart();
+                    long started = System.nanoTime();
+                    StreamingLogEventsClient.PageEnd page = streamingClient.getLogEvents(request, resumingSink);
+                    // The time the sink spent writing events is not the latency of the page.
+                    latency[0] = System.nanoTime() - started - resumingSink.sinkNanos;
+                    return page;
+                });
+            }
+            catch (AmazonClientException ex) {
+                throw translate(ex, trace);
+            }
+            if (trace != null) {
+                trace.end((int) resumingSink.written, resumingSink.chars);
+            }
+            if (pageSize != null) {
+                pageSize.observe(latency[0], (int) resumingSink.written, resumingSink.chars);
+            }
+            return end;
+        }
+
+        /**
+         * Fetches the latest events of the stream.
+         */
+        private GetLogEventsResult getSampleEvents(String logStreamName, int limit)
+        {
+            GetLogEventsRequest request = newGetLogEventsRequest(logStreamName, null)
+                    .withStartFromHead(false)
+                    .withLimit(limit);
+            return getLogEvents(request);
+        }
+
+        private GetLogEventsRequest newGetLogEventsRequest(String logStreamName, String nextToken)
+        {
+            String logGroupName = task.getLogGroupName();
+            GetLogEventsRequest request = new GetLogEventsRequest()
+                    .withLogGroupName(logGroupName)
+                    .withLogStreamName(logStreamName)
+                    .withStartFromHead(true);
+            request.setStartTime(startTime);
+            request.setEndTime(endTime);
+            if (nextToken != null) {
+                request.setNextToken(nextToken);
+            }
+            return request;
+        }
+
+        private GetLogEventsResult getLogEvents(GetLogEventsRequest request)
+        {
+            return getLogEvents(request, new long[1]);
         }
 
-        private GetLogEventsResult getEvents(String logStreamName, String nextToken)
+        /**
+         * @param latency receives the round trip of the request which succeeded, without the
+         *                waits of the rate limiter, the retries and the circuit breaker
+         */
+        private GetLogEventsResult getLogEvents(final GetLogEventsRequest request, final long[] latency)
         {
+            FlightRecorderEvents.ApiCallTrace trace = FlightRecorderEvents.beginApiCall("GetLogEvents",
+                    request.getLogGroupName(), request.getLogStreamName(), request.getNextToken());
             try {
-                String logGroupName = task.getLogGroupName();
-                GetLogEventsRequest request = new GetLogEventsRequest()
-                        .withLogGroupName(logGroupName)
-                        .withLogStreamName(logStreamName);
-                String time_range_format = DEFAULT_DATE_FORMAT;
-                if (task.getTimeRangeFormat().isPresent()) {
-                    time_range_format = task.getTimeRangeFormat().get();
-                }
-                if (task.getStartTime().isPresent()) {
-                    String startTimeStr = task.getStartTime().get();
-                    Date startTime = DateUtils.parseDateStr(startTimeStr, Collections.singletonList(time_range_format));
-                    request.setStartTime(startTime.getTime());
-                }
-                if (task.getEndTime().isPresent()) {
-                    String endTimeStr = task.getEndTime().get();
-                    Date endTime = DateUtils.parseDateStr(endTimeStr, Collections.singletonList(time_range_format));
-                    request.setEndTime(endTime.getTime());
-                }
-                if (nextToken != null) {
-                    request.setNextToken(nextToken);
-                }
-                GetLogEventsResult response = client.getLogEvents(request);
-
-                return response;
-            }
-            catch (AmazonServiceException ex) {
-                if (ex.getErrorType().equals(AmazonServiceException.ErrorType.Client)) {
-                    // HTTP 40x errors. auth error etc. See AWS document for the full list:
-                    // https://docs.aws.amazon.com/AmazonCloudWatch/latest/APIReference/CommonErrors.html
-                    if (ex.getStatusCode() != 400   // 404 Bad Request is unexpected error
-                        || "ExpiredToken".equalsIgnoreCase(ex.getErrorCode())) { // if statusCode == 400 && errorCode == ExpiredToken => throws ConfigException
-                        throw new ConfigException(ex);
+                GetLogEventsResult result = retrier.call("GetLogEvents", trace, () -> {
+                    acquire();
+                    long started = System.nanoTime();
+                    GetLogEventsResult page = client.get().getLogEvents(request);
+                    latency[0] = System.nanoTime() - started;
+                    return page;
+                });
+                if (trace != null) {
+                    long chars = 0;
+                    for (OutputLogEvent event : result.getEvents()) {
+                        chars += event.getMessage().length();
                     }
+                    trace.end(result.getEvents().size(), chars);
+                }
+                return result;
+            }
+            catch (AmazonClientException ex) {
+                throw translate(ex, trace);
+            }
+        }
+
+        FilterLogEventsResult filterEvents(List<String> logStreamNames, String nextToken)
+        {
+            final FilterLogEventsRequest request = new FilterLogEventsRequest()
+                    .withLogGroupName(task.getLogGroupName())
+                    .withLogStreamNames(logStreamNames)
+                    .withStartTime(startTime)
+                    .withEndTime(endTime)
+                    .withNextToken(nextToken);
+            FlightRecorderEvents.ApiCallTrace trace = FlightRecorderEvents.beginApiCall("FilterLogEvents",
+                    request.getLogGroupName(), String.join(",", logStreamNames), nextToken);
+            try {
+                FilterLogEventsResult result = retrier.call("FilterLogEvents", trace, () -> {
+                    acquire();
+                    return client.get().filterLogEvents(request);
+                });
+                if (trace != null) {
+                    long chars = 0;
+                    for (FilteredLogEvent event : result.getEvents()) {
+                        chars += event.getMessage().length();
+                    }
+                    trace.end(result.getEvents().size(), chars);
+                }
+                return result;
+            }
+            catch (AmazonClientException ex) {
+                throw translate(ex, trace);
+            }
+        }
+
+        DescribeLogStreamsResult describeLogStreams(String nextToken)
+        {
+            String logGroupName = task.getLogGroupName();
+            DescribeLogStreamsRequest request = new DescribeLogStreamsRequest();
+            request.setLogGroupName(logGroupName);
+            if (nextToken != null) {
+                request.setNextToken(nextToken);
+            }
+            if (task.getLogStreamName().isPresent()) {
+                request.setLogStreamNamePrefix(task.getLogStreamName().get());
+            }
+
+            return requestLogStreams(request);
+        }
+
+        /**
+         * Lists streams of the log group from the one with the latest event.
+         * A name prefix can not be used with this order.
+         */
+        DescribeLogStreamsResult describeRecentLogStreams(String nextToken)
+        {
+            DescribeLogStreamsRequest request = new DescribeLogStreamsRequest()
+                    .withLogGroupName(task.getLogGroupName())
+                    .withOrderBy(OrderBy.LastEventTime)
+                    .withDescending(true);
+            if (nextToken != null) {
+                request.setNextToken(nextToken);
+            }
+
+            return requestLogStreams(request);
+        }
+
+        private DescribeLogStreamsResult requestLogStreams(final DescribeLogStreamsRequest request)
+        {
+            FlightRecorderEvents.ApiCallTrace trace = FlightRecorderEvents.beginApiCall("DescribeLogStreams",
+                    request.getLogGroupName(), request.getLogStreamNamePrefix(), request.getNextToken());
+            try {
+                DescribeLogStreamsResult result = retrier.call("DescribeLogStreams", trace, () -> {
+                    acquire();
+                    return client.get().describeLogStreams(request);
+                });
+                if (trace != null) {
+                    trace.end(result.getLogStreams().size(), 0);
                 }
-                throw ex;
+                return result;
+            }
+            catch (AmazonClientException ex) {
+                throw translate(ex, trace);
             }
         }
 
-        private List<LogStream> describeLogStreams(List<LogStream> logStreams, String nextToken)
+        /**
+         * @return storedBytes of the log group, or null if it can not be described
+         */
+        Long getLogGroupStoredBytes()
         {
+            final DescribeLogGroupsRequest request = new DescribeLogGroupsRequest()
+                    .withLogGroupNamePrefix(task.getLogGroupName());
+            FlightRecorderEvents.ApiCallTrace trace = FlightRecorderEvents.beginApiCall("DescribeLogGroups",
+                    request.getLogGroupNamePrefix(), null, null);
+            DescribeLogGroupsResult result;
             try {
-                String logGroupName = task.getLogGroupName();
-                DescribeLogStreamsRequest request = new DescribeLogStreamsRequest();
-                request.setLogGroupName(logGroupName);
-                if (nextToken != null) {
-                    request.setNextToken(nextToken);
+                result = retrier.call("DescribeLogGroups", trace, () -> {
+                    acquire();
+                    return client.get().describeLogGroups(request);
+                });
+            }
+            catch (AmazonClientException ex) {
+                // The plan is still made without the bytes, e.g. without logs:DescribeLogGroups permission.
+                if (trace != null) {
+                    trace.fail(RequestRetrier.errorCode(ex));
                 }
-                if (task.getLogStreamName().isPresent()) {
-                    request.setLogStreamNamePrefix(task.getLogStreamName().get());
+                logger.warn("Failed to describe log group {}: {}", task.getLogGroupName(), ex.getMessage());
+                return null;
+            }
+            if (trace != null) {
+                trace.end(result.getLogGroups().size(), 0);
+            }
+            // Groups are listed in the order of their names, so the group itself comes first.
+            for (LogGroup logGroup : result.getLogGroups()) {
+                if (logGroup.getLogGroupName().equals(task.getLogGroupName())) {
+                    return logGroup.getStoredBytes();
                 }
+            }
+            return null;
+        }
 
-                DescribeLogStreamsResult response = client.describeLogStreams(request);
-                if (!logStreams.isEmpty()) {
-                    for (LogStream stream : response.getLogStreams()) {
-                        logStreams.add(stream);
-                    }
+        /**
+         * A retried page is decoded from its beginning again. Events which were already
+         * written are skipped so that they are not duplicated.
+         */
+        @VisibleForTesting
+        static class ResumingSink
+                implements LogEventSink
+        {
+            private final LogEventSink sink;
+            // Whether the time spent in the sink is measured, for `adaptive_page_size`.
+            private final boolean timed;
+            private long written = 0;
+            private long seen = 0;
+            private long chars = 0;
+            private long sinkNanos = 0;
+
+            ResumingSink(LogEventSink sink)
+            {
+                this(sink, false);
+            }
+
+            ResumingSink(LogEventSink sink, boolean timed)
+            {
+                this.sink = sink;
+                this.timed = timed;
+            }
+
+            void restart()
+            {
+                seen = 0;
+                sinkNanos = 0;
+            }
+
+            @Override
+            public boolean write(long timestamp, long ingestionTime, String message)
+            {
+                if (seen++ < written) {
+                    return false;
                 }
-                else {
-                    logStreams = response.getLogStreams();
+                written++;
+                if (message != null) {
+                    chars += message.length();
+                }
+                if (!timed) {
+                    return sink.write(timestamp, ingestionTime, message);
+                }
+                long started = System.nanoTime();
+                try {
+                    return sink.write(timestamp, ingestionTime, message);
                 }
-                if (response.getNextToken() != null) {
-                    logStreams = describeLogStreams(logStreams, response.getNextToken());
+                finally {
+                    sinkNanos += System.nanoTime() - started;
                 }
+            }
+        }
 
-                return logStreams;
+        private static RuntimeException translate(AmazonClientException ex, FlightRecorderEvents.ApiCallTrace trace)
+        {
+            if (trace != null) {
+                trace.fail(RequestRetrier.errorCode(ex));
             }
-            catch (AmazonServiceException ex) {
-                if (ex.getErrorType().equals(AmazonServiceException.ErrorType.Client)) {
-                    // HTTP 40x errors. auth error etc. See AWS document for the full list:
-                    // https://docs.aws.amazon.com/AmazonCloudWatch/latest/APIReference/CommonErrors.html
-                    if (ex.getStatusCode() != 400   // 404 Bad Request is unexpected error
-                        || "ExpiredToken".equalsIgnoreCase(ex.getErrorCode())) { // if statusCode == 400 && errorCode == ExpiredToken => throws ConfigException
-                        throw new ConfigException(ex);
-                    }
+            if (ex instanceof AmazonServiceException) {
+                return translate((AmazonServiceException) ex);
+            }
+            return ex;
+        }
+
+        private static RuntimeException translate(AmazonServiceException ex)
+        {
+            if (ex.getErrorType().equals(AmazonServiceException.ErrorType.Client)) {
+                // HTTP 40x errors. auth error etc. See AWS document for the full list:
+                // https://docs.aws.amazon.com/AmazonCloudWatch/latest/APIReference/CommonErrors.html
+                if (ex.getStatusCode() != 400   // 404 Bad Request is unexpected error
+                    || "ExpiredToken".equalsIgnoreCase(ex.getErrorCode())) { // if statusCode == 400 && errorCode == ExpiredToken => throws ConfigException
+                    return new ConfigException(ex);
                 }
-                throw ex;
             }
+            return ex;
+        }
+    }
+
+    /**
+     * Decides which events are written and when a task has produced enough records.
+     * Used for `max_records`, `sample_rate` and `embulk preview`.
+     */
+    @VisibleForTesting
+    static class RecordSampler
+    {
+        private final long maxRecords;
+        private final double sampleRate;
+        private final boolean preview;
+        private volatile long records;
+
+        public RecordSampler(PluginTask task, boolean preview)
+        {
+            this.maxRecords = task.getMaxRecords().or(Long.MAX_VALUE);
+            this.sampleRate = task.getSampleRate();
+            this.preview = preview;
+            this.records = 0;
+        }
+
+        public boolean isPreview()
+        {
+            return preview;
+        }
+
+        public boolean accept()
+        {
+            return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+
+        /**
+         * @return true if no more records are needed
+         */
+        public boolean recordAdded()
+        {
+            records++;
+            return isSatisfied();
+        }
+
+        public boolean isSatisfied()
+        {
+            return records >= maxRecords;
+        }
+
+        public boolean wantsMoreStreams(int readStreams)
+        {
+            if (preview && readStreams >= PREVIEW_LOG_STREAMS) {
+                return false;
+            }
+            return !isSatisfied();
+        }
+
+        public long getRecords()
+        {
+            return records;
         }
     }
 }
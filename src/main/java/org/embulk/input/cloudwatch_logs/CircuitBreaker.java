@@ -0,0 +1,66 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pauses every fetcher of a log group while requests keep failing.
+ *
+ * The breaker opens after `threshold` consecutive failures, and requests wait until it
+ * closes again. A success resets the failure count. Tasks of a transaction run in the
+ * same JVM and share the breaker of their log group.
+ */
+class CircuitBreaker
+{
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final int threshold;
+    private final long openMillis;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong();
+
+    CircuitBreaker(int threshold, long openMillis)
+    {
+        this.threshold = threshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param key the log group name, qualified by the region and account when targets are set
+     */
+    static CircuitBreaker of(String key, int threshold, long openMillis)
+    {
+        return breakers.computeIfAbsent(key, name -> new CircuitBreaker(threshold, openMillis));
+    }
+
+    void awaitClosed()
+            throws InterruptedException
+    {
+        long wait;
+        while ((wait = openUntil.get() - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    void recordSuccess()
+    {
+        consecutiveFailures.set(0);
+    }
+
+    void recordFailure()
+    {
+        if (consecutiveFailures.incrementAndGet() >= threshold) {
+            long until = System.currentTimeMillis() + openMillis;
+            if (openUntil.getAndSet(until) < System.currentTimeMillis()) {
+                logger.warn("{} consecutive CloudWatch Logs request failures. Pausing requests for {} ms",
+                            consecutiveFailures.get(), openMillis);
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.embulk.input.cloudwatch_logs;
 
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.logs.AWSLogsClientBuilder;
 import com.amazonaws.services.logs.AWSLogs;
 import com.google.common.base.Optional;
@@ -17,6 +20,8 @@ public class CloudwatchLogsInputPlugin
         @Config("region")
         @ConfigDefault("null")
         Optional<String> getRegion();
+
+        void setRegion(Optional<String> region);
     }
 
     @Override
@@ -25,6 +30,22 @@ public class CloudwatchLogsInputPlugin
         return CloudWatchLogsPluginTask.class;
     }
 
+    @Override
+    protected void applyTarget(PluginTask task, TargetTask target, int targetIndex)
+    {
+        super.applyTarget(task, target, targetIndex);
+        if (target.getRegion().isPresent()) {
+            ((CloudWatchLogsPluginTask) task).setRegion(target.getRegion());
+        }
+    }
+
+    @Override
+    protected String getRegion(PluginTask task, TargetTask target)
+    {
+        // A target without region reads the region at the top level.
+        return ((CloudWatchLogsPluginTask) task).getRegion().orNull();
+    }
+
     @Override
     protected AWSLogs newLogsClient(PluginTask task)
     {
@@ -41,4 +62,32 @@ public class CloudwatchLogsInputPlugin
 
         return builder.build();
     }
+
+    @Override
+    protected AwsClientBuilder.EndpointConfiguration getStsEndpointConfiguration(PluginTask task)
+    {
+        Optional<String> region = ((CloudWatchLogsPluginTask) task).getRegion();
+        if (!region.isPresent()) {
+            return super.getStsEndpointConfiguration(task);
+        }
+        // The regional endpoint in the partition of the region, such as amazonaws.com.cn for China regions.
+        Region resolved = RegionUtils.getRegion(region.get());
+        if (resolved == null) {
+            throw new ConfigException(String.format("Unknown region '%s'", region.get()));
+        }
+        return new AwsClientBuilder.EndpointConfiguration("https://sts." + region.get() + "." + resolved.getDomain(),
+                                                          region.get());
+    }
+
+    @Override
+    protected StreamingLogEventsClient newStreamingLogEventsClient(PluginTask task)
+    {
+        CloudWatchLogsPluginTask t = (CloudWatchLogsPluginTask) task;
+        Optional<String> region = t.getRegion();
+        if (!region.isPresent()) {
+            throw new ConfigException("region is required");
+        }
+
+        return new StreamingLogEventsClient(getCredentialsProvider(t), region.get(), getClientConfiguration(t));
+    }
 }
@@ -0,0 +1,98 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnConfig;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.msgpack.value.ValueFactory;
+
+/**
+ * Converts text values into typed columns. Values which can not be converted are set as null.
+ */
+class ColumnValueSetter
+{
+    private final Map<String, Column> columns;
+    private final DateTimeFormatter[] timestampFormatters;
+
+    ColumnValueSetter(Schema schema, SchemaConfig columnConfigs, String defaultTimestampFormat)
+    {
+        this.columns = new HashMap<>();
+        this.timestampFormatters = new DateTimeFormatter[schema.getColumnCount()];
+        for (ColumnConfig columnConfig : columnConfigs.getColumns()) {
+            Column column = schema.lookupColumn(columnConfig.getName());
+            columns.put(column.getName(), column);
+            if (column.getType().equals(Types.TIMESTAMP)) {
+                String format = columnConfig.getOption().get(String.class, "format", defaultTimestampFormat);
+                timestampFormatters[column.getIndex()] = DateTimeFormat.forPattern(format).withZoneUTC();
+            }
+        }
+    }
+
+    Map<String, Column> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @return null if the value is not a valid timestamp
+     */
+    Timestamp parseTimestamp(Column column, String value)
+    {
+        try {
+            return Timestamp.ofEpochMilli(timestampFormatters[column.getIndex()].parseMillis(value));
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    void set(Column column, String value, PageBuilder pageBuilder)
+    {
+        if (value == null) {
+            pageBuilder.setNull(column);
+            return;
+        }
+        Type type = column.getType();
+        try {
+            if (type.equals(Types.STRING)) {
+                pageBuilder.setString(column, value);
+            }
+            else if (type.equals(Types.LONG)) {
+                pageBuilder.setLong(column, Long.parseLong(value));
+            }
+            else if (type.equals(Types.DOUBLE)) {
+                pageBuilder.setDouble(column, Double.parseDouble(value));
+            }
+            else if (type.equals(Types.BOOLEAN)) {
+                pageBuilder.setBoolean(column, Boolean.parseBoolean(value));
+            }
+            else if (type.equals(Types.TIMESTAMP)) {
+                Timestamp timestamp = parseTimestamp(column, value);
+                if (timestamp != null) {
+                    pageBuilder.setTimestamp(column, timestamp);
+                }
+                else {
+                    pageBuilder.setNull(column);
+                }
+            }
+            else if (type.equals(Types.JSON)) {
+                pageBuilder.setJson(column, ValueFactory.newString(value));
+            }
+            else {
+                pageBuilder.setNull(column);
+            }
+        }
+        catch (NumberFormatException ex) {
+            pageBuilder.setNull(column);
+        }
+    }
+}
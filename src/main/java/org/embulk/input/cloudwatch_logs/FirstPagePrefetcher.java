@@ -0,0 +1,135 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+
+/**
+ * Fetches the first pages of the next log streams, and the next page of DescribeLogStreams,
+ * in parallel while the current stream is read. Most streams of a small run have only one
+ * page, so the run waits for one round trip per `prefetch_streams` streams instead of one
+ * per stream.
+ */
+class FirstPagePrefetcher
+        implements AutoCloseable
+{
+    private final CloudWatchLogsDrainer drainer;
+    private final int window;
+    private final ExecutorService executor;
+    private final Deque<String> queued = new ArrayDeque<>();
+    private final Map<String, Future<FirstPage>> fetching = new LinkedHashMap<>();
+
+    FirstPagePrefetcher(CloudWatchLogsDrainer drainer, int window)
+    {
+        this.drainer = drainer;
+        this.window = window;
+        // One more thread for DescribeLogStreams.
+        this.executor = Executors.newFixedThreadPool(window + 1, runnable -> {
+            Thread thread = new Thread(runnable, "cloudwatch-logs-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static class FirstPage
+    {
+        private final GetLogEventsResult result;
+        private final PageSizeController pageSize;
+
+        FirstPage(GetLogEventsResult result, PageSizeController pageSize)
+        {
+            this.result = result;
+            this.pageSize = pageSize;
+        }
+
+        GetLogEventsResult getResult()
+        {
+            return result;
+        }
+
+        PageSizeController getPageSize()
+        {
+            return pageSize;
+        }
+    }
+
+    /**
+     * Queues a stream which will be read. Streams are fetched in the queued order.
+     */
+    void offer(String logStreamName)
+    {
+        queued.addLast(logStreamName);
+        fill();
+    }
+
+    /**
+     * @return the first page of the stream, or null if it was not queued
+     */
+    FirstPage take(String logStreamName)
+    {
+        fill();
+        Future<FirstPage> future = fetching.remove(logStreamName);
+        if (future == null) {
+            return null;
+        }
+        fill();
+        return get(future);
+    }
+
+    Future<DescribeLogStreamsResult> describeLogStreams(final String nextToken)
+    {
+        return executor.submit(() -> drainer.describeLogStreams(nextToken));
+    }
+
+    static <T> T get(Future<T> future)
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    private void fill()
+    {
+        while (fetching.size() < window && !queued.isEmpty()) {
+            final String logStreamName = queued.pollFirst();
+            fetching.put(logStreamName, executor.submit(() -> {
+                PageSizeController pageSize = drainer.newPageSizeController();
+                return new FirstPage(drainer.getEvents(logStreamName, null, pageSize), pageSize);
+            }));
+        }
+    }
+
+    /**
+     * Cancels the pages which are not taken.
+     */
+    @Override
+    public void close()
+    {
+        for (Future<FirstPage> future : fetching.values()) {
+            future.cancel(true);
+        }
+        fetching.clear();
+        queued.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,118 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JDK Flight Recorder events of API calls, retries and page flushes.
+ *
+ * Events are created only while a recording is running, so a run without a recording
+ * pays a volatile read per call. The JFR classes are referenced only from {@link JfrEvents},
+ * which is not loaded on a JVM without Flight Recorder.
+ */
+final class FlightRecorderEvents
+{
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorderEvents.class);
+
+    private static volatile boolean recording = false;
+
+    static {
+        try {
+            Class.forName("jdk.jfr.FlightRecorderListener");
+            JfrEvents.register();
+        }
+        catch (ClassNotFoundException | LinkageError ex) {
+            logger.debug("JDK Flight Recorder is not available", ex);
+        }
+    }
+
+    private FlightRecorderEvents()
+    {
+    }
+
+    static void setRecording(boolean recording)
+    {
+        FlightRecorderEvents.recording = recording;
+    }
+
+    static boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * @return a trace of the call, or null if no recording is running
+     */
+    static ApiCallTrace beginApiCall(String operation, String logGroupName, String logStreamName, String token)
+    {
+        if (!recording) {
+            return null;
+        }
+        return JfrEvents.beginApiCall(operation, logGroupName, logStreamName, token);
+    }
+
+    static void retry(String operation, int attempt, long waitMillis, String errorCode, boolean throttled)
+    {
+        if (recording) {
+            JfrEvents.retry(operation, attempt, waitMillis, errorCode, throttled);
+        }
+    }
+
+    static PageOutput traced(PageOutput output)
+    {
+        return new TracingPageOutput(output);
+    }
+
+    /**
+     * A call of CloudWatch Logs API, including its retries.
+     */
+    interface ApiCallTrace
+    {
+        void retried(boolean throttled);
+
+        void end(int events, long messageChars);
+
+        void fail(String errorCode);
+    }
+
+    /**
+     * Records how long the output takes to accept each page flushed by PageBuilder.
+     */
+    private static class TracingPageOutput
+            implements PageOutput
+    {
+        private final PageOutput output;
+
+        TracingPageOutput(PageOutput output)
+        {
+            this.output = output;
+        }
+
+        @Override
+        public void add(Page page)
+        {
+            if (!recording) {
+                output.add(page);
+                return;
+            }
+            int bytes = page.buffer().limit();
+            long started = System.nanoTime();
+            output.add(page);
+            JfrEvents.pageFlush(bytes, System.nanoTime() - started);
+        }
+
+        @Override
+        public void finish()
+        {
+            output.finish();
+        }
+
+        @Override
+        public void close()
+        {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.embulk.input.cloudwatch_logs;
+
+/**
+ * Decides which events of an incremental run were already read by the previous runs.
+ *
+ * Streams are read one after another, so an event ingested into a stream after the
+ * stream was read may be older than the newest ingestion time read from another stream.
+ * The ingestion time watermark is therefore capped at the time the tasks started to
+ * fetch, less a margin for events which become visible to GetLogEvents late. Events newer
+ * than the last event time were not read whenever they were ingested.
+ */
+class IncrementalWatermark
+{
+    // Time for an ingested event to become visible to GetLogEvents and FilterLogEvents.
+    static final long VISIBILITY_MARGIN_MILLIS = 2 * 60 * 1000;
+
+    private final Long lastEventTime;
+    private final Long lastIngestionTime;
+
+    /**
+     * @param lastEventTime `last_event_time` of the previous run, or null
+     * @param lastIngestionTime `last_ingestion_time` of the previous run, or null
+     */
+    IncrementalWatermark(Long lastEventTime, Long lastIngestionTime)
+    {
+        this.lastEventTime = lastEventTime;
+        this.lastIngestionTime = lastIngestionTime;
+    }
+
+    /**
+     * @return true if the event was read by a previous run
+     */
+    boolean covers(long timestamp, long ingestionTime)
+    {
+        return lastEventTime != null && lastIngestionTime != null
+                && timestamp <= lastEventTime && ingestionTime <= lastIngestionTime;
+    }
+
+    /**
+     * @param previous `last_ingestion_time` of the previous run, or null
+     * @param newestRead the newest ingestion time read by this run, or null
+     * @param fetchStartedAt the time the first task of this run started to fetch
+     * @return `last_ingestion_time` for the next run, or null
+     */
+    static Long nextIngestionTime(Long previous, Long newestRead, long fetchStartedAt)
+    {
+        Long newest = previous;
+        if (newestRead != null && (newest == null || newestRead > newest)) {
+            newest = newestRead;
+        }
+        if (newest == null) {
+            return null;
+        }
+        // Every event ingested before this time was visible when its stream was read.
+        return Math.min(newest, fetchStartedAt - VISIBILITY_MARGIN_MILLIS);
+    }
+}
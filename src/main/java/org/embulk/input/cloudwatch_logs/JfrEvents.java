@@ -0,0 +1,190 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR event types. Only {@link FlightRecorderEvents} refers to this class.
+ */
+final class JfrEvents
+{
+    private JfrEvents()
+    {
+    }
+
+    static void register()
+    {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed)
+            {
+                update();
+            }
+        });
+        update();
+    }
+
+    private static void update()
+    {
+        boolean running = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                if (recording.getState() == RecordingState.RUNNING) {
+                    running = true;
+                    break;
+                }
+            }
+        }
+        FlightRecorderEvents.setRecording(running);
+    }
+
+    static FlightRecorderEvents.ApiCallTrace beginApiCall(String operation, String logGroupName, String logStreamName, String token)
+    {
+        ApiCallEvent event = new ApiCallEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.operation = operation;
+        event.logGroupName = logGroupName;
+        event.logStreamName = logStreamName;
+        event.token = token;
+        event.begin();
+        return event;
+    }
+
+    static void retry(String operation, int attempt, long waitMillis, String errorCode, boolean throttled)
+    {
+        RetryEvent event = new RetryEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.attempt = attempt;
+            event.wait = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            event.errorCode = errorCode;
+            event.throttled = throttled;
+            event.commit();
+        }
+    }
+
+    static void pageFlush(int bytes, long latencyNanos)
+    {
+        PageFlushEvent event = new PageFlushEvent();
+        if (event.isEnabled()) {
+            event.bytes = bytes;
+            event.latency = latencyNanos;
+            event.commit();
+        }
+    }
+
+    @Name("org.embulk.input.cloudwatch_logs.ApiCall")
+    @Label("CloudWatch Logs API Call")
+    @Description("A call of CloudWatch Logs API including its retries")
+    @Category({"Embulk", "CloudWatch Logs"})
+    static class ApiCallEvent
+            extends Event
+            implements FlightRecorderEvents.ApiCallTrace
+    {
+        @Label("Operation")
+        String operation;
+
+        @Label("Log Group")
+        String logGroupName;
+
+        @Label("Log Stream")
+        String logStreamName;
+
+        @Label("Token")
+        @Description("Token of the page in the stream, or null for the first page")
+        String token;
+
+        @Label("Events")
+        @Description("Number of log events or log streams returned")
+        int events;
+
+        @Label("Message Characters")
+        @Description("Total length of the returned messages")
+        long messageChars;
+
+        @Label("Retries")
+        int retries;
+
+        @Label("Throttled")
+        @Description("Whether any attempt of the call was throttled")
+        boolean throttled;
+
+        @Label("Error Code")
+        String errorCode;
+
+        @Override
+        public void retried(boolean throttled)
+        {
+            this.retries++;
+            this.throttled |= throttled;
+        }
+
+        @Override
+        public void end(int events, long messageChars)
+        {
+            this.events = events;
+            this.messageChars = messageChars;
+            commit();
+        }
+
+        @Override
+        public void fail(String errorCode)
+        {
+            this.errorCode = errorCode;
+            commit();
+        }
+    }
+
+    @Name("org.embulk.input.cloudwatch_logs.Retry")
+    @Label("CloudWatch Logs API Retry")
+    @Category({"Embulk", "CloudWatch Logs"})
+    static class RetryEvent
+            extends Event
+    {
+        @Label("Operation")
+        String operation;
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long wait;
+
+        @Label("Error Code")
+        String errorCode;
+
+        @Label("Throttled")
+        boolean throttled;
+    }
+
+    @Name("org.embulk.input.cloudwatch_logs.PageFlush")
+    @Label("Page Flush")
+    @Description("A page passed from PageBuilder to the output")
+    @Category({"Embulk", "CloudWatch Logs"})
+    static class PageFlushEvent
+            extends Event
+    {
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        @Label("Latency")
+        @Description("Time taken by the output to accept the page")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
@@ -0,0 +1,216 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+/**
+ * Extracts the configured top-level fields of a JSON message into typed columns.
+ *
+ * Messages are read with a streaming parser. Fields which are not configured are
+ * skipped without being decoded, and parsing stops once every column is filled.
+ * Columns of json type receive the field value as is.
+ */
+class JsonMessageProjector
+        implements MessageParser
+{
+    private final JsonFactory factory = new JsonFactory();
+    private final ColumnValueSetter setter;
+    private final Map<String, Column> columns;
+    private final boolean[] filled;
+
+    JsonMessageProjector(Schema schema, SchemaConfig columnConfigs, String defaultTimestampFormat)
+    {
+        this.setter = new ColumnValueSetter(schema, columnConfigs, defaultTimestampFormat);
+        this.columns = setter.getColumns();
+        this.filled = new boolean[schema.getColumnCount()];
+    }
+
+    @Override
+    public boolean parse(String message, PageBuilder pageBuilder)
+    {
+        Arrays.fill(filled, false);
+        int remaining = columns.size();
+        try (JsonParser parser = factory.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                Column column = columns.get(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+                if (column == null || filled[column.getIndex()]) {
+                    parser.skipChildren();
+                    continue;
+                }
+                setValue(parser, token, column, pageBuilder);
+                filled[column.getIndex()] = true;
+                remaining--;
+            }
+        }
+        catch (IOException ex) {
+            return false;
+        }
+        for (Column column : columns.values()) {
+            if (!filled[column.getIndex()]) {
+                pageBuilder.setNull(column);
+            }
+        }
+        return true;
+    }
+
+    private void setValue(JsonParser parser, JsonToken token, Column column, PageBuilder pageBuilder)
+            throws IOException
+    {
+        if (token == JsonToken.VALUE_NULL) {
+            pageBuilder.setNull(column);
+            return;
+        }
+        Type type = column.getType();
+        if (type.equals(Types.JSON)) {
+            pageBuilder.setJson(column, readValue(parser, token));
+        }
+        else if (type.equals(Types.STRING)) {
+            if (token.isScalarValue()) {
+                pageBuilder.setString(column, parser.getText());
+            }
+            else {
+                pageBuilder.setString(column, readValue(parser, token).toJson());
+            }
+        }
+        else if (type.equals(Types.LONG)) {
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    // Out of the range of long.
+                    pageBuilder.setNull(column);
+                }
+                else {
+                    pageBuilder.setLong(column, parser.getLongValue());
+                }
+            }
+            else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+                pageBuilder.setLong(column, (long) parser.getDoubleValue());
+            }
+            else if (token == JsonToken.VALUE_STRING) {
+                setter.set(column, parser.getText(), pageBuilder);
+            }
+            else {
+                parser.skipChildren();
+                pageBuilder.setNull(column);
+            }
+        }
+        else if (type.equals(Types.DOUBLE)) {
+            if (token.isNumeric()) {
+                pageBuilder.setDouble(column, parser.getDoubleValue());
+            }
+            else if (token == JsonToken.VALUE_STRING) {
+                setter.set(column, parser.getText(), pageBuilder);
+            }
+            else {
+                parser.skipChildren();
+                pageBuilder.setNull(column);
+            }
+        }
+        else if (type.equals(Types.BOOLEAN)) {
+            if (token.isBoolean()) {
+                pageBuilder.setBoolean(column, token == JsonToken.VALUE_TRUE);
+            }
+            else if (token == JsonToken.VALUE_STRING) {
+                setter.set(column, parser.getText(), pageBuilder);
+            }
+            else {
+                parser.skipChildren();
+                pageBuilder.setNull(column);
+            }
+        }
+        else if (type.equals(Types.TIMESTAMP)) {
+            if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                pageBuilder.setNull(column);
+            }
+            else if (token.isNumeric()) {
+                // Treated as milliseconds since the epoch, like CloudWatch Logs timestamps.
+                pageBuilder.setTimestamp(column, Timestamp.ofEpochMilli(parser.getLongValue()));
+            }
+            else if (token == JsonToken.VALUE_STRING) {
+                setter.set(column, parser.getText(), pageBuilder);
+            }
+            else {
+                parser.skipChildren();
+                pageBuilder.setNull(column);
+            }
+        }
+        else {
+            parser.skipChildren();
+            pageBuilder.setNull(column);
+        }
+    }
+
+    private static Value newInteger(BigInteger value, JsonParser parser)
+            throws IOException
+    {
+        // MessagePack stores integers from -2^63 to 2^64-1, and larger ones as float.
+        if (value.signum() >= 0 ? value.bitLength() <= 64 : value.bitLength() <= 63) {
+            return ValueFactory.newInteger(value);
+        }
+        return ValueFactory.newFloat(parser.getDoubleValue());
+    }
+
+    @VisibleForTesting
+    static Value readValue(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        switch (token) {
+        case START_OBJECT: {
+            Map<Value, Value> map = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Value key = ValueFactory.newString(parser.getCurrentName());
+                map.put(key, readValue(parser, parser.nextToken()));
+            }
+            return ValueFactory.newMap(map);
+        }
+        case START_ARRAY: {
+            List<Value> list = new ArrayList<>();
+            JsonToken next;
+            while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                list.add(readValue(parser, next));
+            }
+            return ValueFactory.newArray(list);
+        }
+        case VALUE_STRING:
+            return ValueFactory.newString(parser.getText());
+        case VALUE_NUMBER_INT:
+            if (parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                return ValueFactory.newInteger(parser.getLongValue());
+            }
+            return newInteger(parser.getBigIntegerValue(), parser);
+        case VALUE_NUMBER_FLOAT:
+            return ValueFactory.newFloat(parser.getDoubleValue());
+        case VALUE_TRUE:
+            return ValueFactory.newBoolean(true);
+        case VALUE_FALSE:
+            return ValueFactory.newBoolean(false);
+        case VALUE_NULL:
+            return ValueFactory.newNil();
+        default:
+            throw new IOException("Unexpected JSON token: " + token);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+
+/**
+ * Base class for messages consisting of key/value pairs.
+ * Values are extracted only for keys which are configured as columns.
+ */
+abstract class KeyValueMessageParser
+        implements MessageParser
+{
+    interface PairHandler
+    {
+        boolean wants(String key);
+
+        void accept(String key, String value);
+    }
+
+    private final ColumnValueSetter setter;
+    private final Map<String, Column> columns;
+    private final boolean[] filled;
+    private final ColumnHandler handler = new ColumnHandler();
+
+    KeyValueMessageParser(Schema schema, SchemaConfig columnConfigs, String defaultTimestampFormat)
+    {
+        this.setter = new ColumnValueSetter(schema, columnConfigs, defaultTimestampFormat);
+        this.columns = setter.getColumns();
+        this.filled = new boolean[schema.getColumnCount()];
+    }
+
+    /**
+     * @return false if the message is not in the expected format
+     */
+    protected abstract boolean scan(String message, PairHandler handler);
+
+    @Override
+    public boolean parse(String message, PageBuilder pageBuilder)
+    {
+        Arrays.fill(filled, false);
+        handler.pageBuilder = pageBuilder;
+        if (!scan(message, handler)) {
+            return false;
+        }
+        for (Column column : columns.values()) {
+            if (!filled[column.getIndex()]) {
+                pageBuilder.setNull(column);
+            }
+        }
+        return true;
+    }
+
+    private class ColumnHandler
+            implements PairHandler
+    {
+        private PageBuilder pageBuilder;
+
+        @Override
+        public boolean wants(String key)
+        {
+            Column column = columns.get(key);
+            return column != null && !filled[column.getIndex()];
+        }
+
+        @Override
+        public void accept(String key, String value)
+        {
+            Column column = columns.get(key);
+            setter.set(column, value, pageBuilder);
+            filled[column.getIndex()] = true;
+        }
+    }
+}
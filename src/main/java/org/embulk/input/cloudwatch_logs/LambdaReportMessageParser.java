@@ -0,0 +1,71 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+
+/**
+ * Parses AWS Lambda `REPORT` lines such as
+ * `REPORT RequestId: 3f5b...\tDuration: 2.13 ms\tBilled Duration: 3 ms\tMemory Size: 128 MB\tMax Memory Used: 72 MB`.
+ * Keys are converted into snake_case (e.g. `billed_duration`) and units are removed from values.
+ * Other lines such as `START` and `END` are not in the expected format.
+ */
+class LambdaReportMessageParser
+        extends KeyValueMessageParser
+{
+    static final String PREFIX = "REPORT ";
+
+    LambdaReportMessageParser(Schema schema, SchemaConfig columnConfigs, String defaultTimestampFormat)
+    {
+        super(schema, columnConfigs, defaultTimestampFormat);
+    }
+
+    @Override
+    protected boolean scan(String message, PairHandler handler)
+    {
+        return scanPairs(message, handler);
+    }
+
+    static boolean scanPairs(String message, PairHandler handler)
+    {
+        if (!message.startsWith(PREFIX)) {
+            return false;
+        }
+        for (String field : message.substring(PREFIX.length()).split("\t")) {
+            int separator = field.indexOf(": ");
+            if (separator <= 0) {
+                continue;
+            }
+            String key = toSnakeCase(field.substring(0, separator).trim());
+            if (!handler.wants(key)) {
+                continue;
+            }
+            String value = field.substring(separator + 2).trim();
+            if (value.endsWith(" ms") || value.endsWith(" MB")) {
+                value = value.substring(0, value.length() - 3);
+            }
+            handler.accept(key, value);
+        }
+        return true;
+    }
+
+    static String toSnakeCase(String key)
+    {
+        StringBuilder sb = new StringBuilder(key.length() + 4);
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == ' ') {
+                sb.append('_');
+            }
+            else if (Character.isUpperCase(c)) {
+                if (i > 0 && Character.isLowerCase(key.charAt(i - 1))) {
+                    sb.append('_');
+                }
+                sb.append(Character.toLowerCase(c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,188 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the cost of a load from DescribeLogStreams without fetching any event.
+ *
+ * Bytes of a stream are its storedBytes scaled by the part of its event time range
+ * inside start_time/end_time. GetLogEvents returns up to 1 MB per page, and one more
+ * call is needed to see that the stream has ended. Note that CloudWatch Logs reports
+ * storedBytes of log streams as 0 since 2019. The storedBytes of the log group is then
+ * spread over the listed streams by their event time spans. Streams of unknown size are
+ * counted as 2 calls.
+ */
+class LoadPlanner
+{
+    static final long BYTES_PER_PAGE = 1024 * 1024;
+    // GetLogEvents quota per account and region, shared by all tasks.
+    static final double GET_LOG_EVENTS_QUOTA = 25.0;
+    // One thread is assumed to complete about 5 calls per second.
+    static final double REQUESTS_PER_SECOND_PER_THREAD = 5.0;
+
+    private final Long startTime;
+    private final Long endTime;
+    private final double requestsPerSecond;
+    private final double quota;
+    private final int maxThreads;
+
+    /**
+     * @param requestsPerSecond `requests_per_second` of each task, or infinity if not set
+     * @param quota calls per second of all tasks together
+     */
+    LoadPlanner(Long startTime, Long endTime, double requestsPerSecond, double quota, int maxThreads)
+    {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.requestsPerSecond = requestsPerSecond;
+        this.quota = quota;
+        this.maxThreads = maxThreads;
+    }
+
+    static class Plan
+    {
+        int listedStreams;
+        int prunedStreams;
+        int unknownSizeStreams;
+        int groupSizedStreams;
+        long estimatedBytes;
+        long estimatedCalls;
+        int taskCount;
+        int parallelism;
+        double estimatedSeconds;
+
+        List<String> report(String logGroupName)
+        {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("Plan of log group %s:", logGroupName));
+            lines.add(String.format("  log streams: %d listed, %d pruned by time range, %d to read"
+                                    + " (%d sized from storedBytes of the log group, %d of unknown size)",
+                                    listedStreams, prunedStreams, listedStreams - prunedStreams,
+                                    groupSizedStreams, unknownSizeStreams));
+            lines.add(String.format("  estimated bytes: %d", estimatedBytes));
+            lines.add(String.format("  estimated GetLogEvents calls: %d", estimatedCalls));
+            lines.add(String.format("  tasks: %d, expected parallelism: %d", taskCount, parallelism));
+            lines.add(String.format("  estimated duration: %.1f seconds", estimatedSeconds));
+            return lines;
+        }
+    }
+
+    /**
+     * @return false if no event of the stream can be in the time range
+     */
+    static boolean overlaps(LogStream logStream, Long startTime, Long endTime, long lastEventTimestampLag)
+    {
+        Long first = logStream.getFirstEventTimestamp();
+        Long last = logStream.getLastEventTimestamp();
+        if (endTime != null && first != null && first >= endTime) {
+            return false;
+        }
+        if (startTime != null && last != null && last + lastEventTimestampLag < startTime) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param logGroupBytes storedBytes of the log group, or null if unknown
+     */
+    Plan plan(List<LogStream> logStreams, int taskCount, long lastEventTimestampLag, Long logGroupBytes)
+    {
+        Plan plan = new Plan();
+        plan.listedStreams = logStreams.size();
+        plan.taskCount = taskCount;
+        double bytesPerMilli = bytesPerMilli(logStreams, logGroupBytes);
+        for (LogStream logStream : logStreams) {
+            if (!overlaps(logStream, startTime, endTime, lastEventTimestampLag)) {
+                plan.prunedStreams++;
+                continue;
+            }
+            long bytes = estimateBytes(logStream, startTime, endTime, bytesPerMilli);
+            if (!hasStoredBytes(logStream) && bytes >= 0) {
+                plan.groupSizedStreams++;
+            }
+            if (bytes < 0) {
+                plan.unknownSizeStreams++;
+                plan.estimatedCalls += 2;
+            }
+            else {
+                plan.estimatedBytes += bytes;
+                plan.estimatedCalls += (bytes + BYTES_PER_PAGE - 1) / BYTES_PER_PAGE + 1;
+            }
+        }
+        plan.parallelism = Math.max(1, Math.min(taskCount, maxThreads));
+        // requests_per_second limits each task, and the quota limits all of them.
+        double rate = Math.min(plan.parallelism * Math.min(requestsPerSecond, REQUESTS_PER_SECOND_PER_THREAD), quota);
+        plan.estimatedSeconds = plan.estimatedCalls / rate;
+        return plan;
+    }
+
+    /**
+     * Spreads the bytes of the log group over the streams in proportion to the time
+     * between their first and last events. When the streams are listed with a prefix,
+     * the listed streams are assumed to hold all bytes, which overestimates them.
+     * @return bytes per millisecond of a stream, or -1 if unknown
+     */
+    static double bytesPerMilli(List<LogStream> logStreams, Long logGroupBytes)
+    {
+        if (logGroupBytes == null || logGroupBytes <= 0) {
+            return -1;
+        }
+        long millis = 0;
+        for (LogStream logStream : logStreams) {
+            Long first = logStream.getFirstEventTimestamp();
+            Long last = logStream.getLastEventTimestamp();
+            if (first != null && last != null && last >= first) {
+                millis += last - first + 1;
+            }
+        }
+        return millis > 0 ? (double) logGroupBytes / millis : -1;
+    }
+
+    /**
+     * @return bytes of the stream in the time range, or -1 if unknown
+     */
+    static long estimateBytes(LogStream logStream, Long startTime, Long endTime)
+    {
+        return estimateBytes(logStream, startTime, endTime, -1);
+    }
+
+    /**
+     * @param bytesPerMilli bytes per millisecond of streams without storedBytes, or -1 if unknown
+     * @return bytes of the stream in the time range, or -1 if unknown
+     */
+    static long estimateBytes(LogStream logStream, Long startTime, Long endTime, double bytesPerMilli)
+    {
+        Long first = logStream.getFirstEventTimestamp();
+        Long last = logStream.getLastEventTimestamp();
+        if (!hasStoredBytes(logStream)) {
+            if (bytesPerMilli < 0 || first == null || last == null || last < first) {
+                return -1;
+            }
+            long from = startTime != null ? Math.max(first, startTime) : first;
+            long to = endTime != null ? Math.min(last, endTime - 1) : last;
+            if (to < from) {
+                return 0;
+            }
+            return (long) (bytesPerMilli * (to - from + 1));
+        }
+        long storedBytes = logStream.getStoredBytes();
+        if (first == null || last == null || last <= first) {
+            return storedBytes;
+        }
+        long from = startTime != null ? Math.max(first, startTime) : first;
+        long to = endTime != null ? Math.min(last, endTime) : last;
+        if (to <= from) {
+            return 0;
+        }
+        return (long) (storedBytes * ((double) (to - from) / (last - first)));
+    }
+
+    private static boolean hasStoredBytes(LogStream logStream)
+    {
+        return logStream.getStoredBytes() != null && logStream.getStoredBytes() > 0;
+    }
+}
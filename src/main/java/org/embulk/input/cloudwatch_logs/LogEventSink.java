@@ -0,0 +1,12 @@
+package org.embulk.input.cloudwatch_logs;
+
+/**
+ * Receives CloudWatch Logs events one by one.
+ */
+interface LogEventSink
+{
+    /**
+     * @return true if no more events are needed
+     */
+    boolean write(long timestamp, long ingestionTime, String message);
+}
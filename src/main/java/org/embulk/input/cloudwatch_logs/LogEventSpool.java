@@ -0,0 +1,266 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers events between a fetching thread and the thread writing pages.
+ *
+ * Events are appended to memory-mapped segment files. A segment is deleted once it
+ * is replayed, and the writer blocks while `maxBytes` of segments are waiting, so a
+ * slow output does not fill the heap and CloudWatch Logs is read at its own speed.
+ *
+ * Each event is stored as its message length, timestamp, ingestion time and UTF-8 message.
+ */
+class LogEventSpool
+        implements LogEventSink, Closeable
+{
+    private static final int HEADER_BYTES = 4 + 8 + 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment current;
+    private int segmentCount;
+    private boolean finished;
+    private boolean closed;
+    private Throwable failure;
+    private byte[] readBuffer = new byte[4096];
+
+    LogEventSpool(Path parent, int segmentBytes, long maxBytes)
+            throws IOException
+    {
+        Files.createDirectories(parent);
+        this.directory = Files.createTempDirectory(parent, "embulk-input-cloudwatch_logs-");
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+    }
+
+    /**
+     * Appends an event. Blocks while the spool is full.
+     * @return true if the reader is closed and needs no more events
+     */
+    @Override
+    public boolean write(long timestamp, long ingestionTime, String message)
+    {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int size = HEADER_BYTES + bytes.length;
+        if (size > segmentBytes) {
+            throw new IllegalArgumentException(String.format("An event of %d bytes does not fit in a spool segment", size));
+        }
+        Segment segment;
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (current == null || segmentBytes - current.committed < size) {
+                if (current != null) {
+                    current.sealed = true;
+                    notEmpty.signal();
+                }
+                while (segments.size() >= maxSegments && !closed) {
+                    notFull.await();
+                }
+                if (closed) {
+                    return true;
+                }
+                current = new Segment(directory.resolve(String.format("segment-%08d.spool", segmentCount++)), segmentBytes);
+                segments.addLast(current);
+            }
+            segment = current;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // Only this thread writes beyond the committed position of the segment.
+        segment.writer.putInt(bytes.length).putLong(timestamp).putLong(ingestionTime).put(bytes);
+
+        lock.lock();
+        try {
+            segment.committed += size;
+            notEmpty.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Tells the reader that no more events are written.
+     */
+    void finish()
+    {
+        lock.lock();
+        try {
+            finished = true;
+            if (current != null) {
+                current.sealed = true;
+            }
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the reader that fetching failed.
+     */
+    void fail(Throwable cause)
+    {
+        lock.lock();
+        try {
+            failure = cause;
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes spooled events into the sink until the writer finishes or the sink needs no more events.
+     */
+    void replay(LogEventSink sink)
+    {
+        while (true) {
+            Segment segment;
+            int available;
+            lock.lock();
+            try {
+                while (true) {
+                    if (failure != null) {
+                        if (failure instanceof RuntimeException) {
+                            throw (RuntimeException) failure;
+                        }
+                        throw new IllegalStateException(failure);
+                    }
+                    segment = segments.peekFirst();
+                    if (segment != null) {
+                        if (segment.reader.position() < segment.committed) {
+                            break;
+                        }
+                        if (segment.sealed) {
+                            segments.removeFirst();
+                            segment.delete();
+                            notFull.signal();
+                            continue;
+                        }
+                    }
+                    else if (finished) {
+                        return;
+                    }
+                    notEmpty.await();
+                }
+                available = segment.committed;
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+            finally {
+                lock.unlock();
+            }
+
+            ByteBuffer reader = segment.reader;
+            while (reader.position() < available) {
+                int length = reader.getInt();
+                long timestamp = reader.getLong();
+                long ingestionTime = reader.getLong();
+                if (readBuffer.length < length) {
+                    readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+                }
+                reader.get(readBuffer, 0, length);
+                if (sink.write(timestamp, ingestionTime, new String(readBuffer, 0, length, StandardCharsets.UTF_8))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the writer and deletes all segments.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+            for (Segment segment : segments) {
+                segment.delete();
+            }
+            segments.clear();
+            current = null;
+        }
+        finally {
+            lock.unlock();
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private static class Segment
+    {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer writer;
+        private final ByteBuffer reader;
+        // Guarded by the lock of the spool.
+        private int committed;
+        private boolean sealed;
+
+        Segment(Path path, int size)
+                throws IOException
+        {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.writer = buffer;
+            this.reader = buffer.duplicate();
+            this.committed = 0;
+            this.sealed = false;
+        }
+
+        /**
+         * The mapping is released when the buffers are garbage collected.
+         */
+        void delete()
+        {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            }
+            catch (IOException ex) {
+                // Just ignored. The directory is left for the next cleanup.
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.io.Closeable;
+
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.RecordSampler;
+
+/**
+ * Writes CloudWatch Logs events into a page according to `message_format`.
+ */
+class LogEventWriter
+        implements LogEventSink, Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(LogEventWriter.class);
+
+    private final PageBuilder pageBuilder;
+    private final RecordSampler sampler;
+    private final String messageFormat;
+    private final MessageParser parser;
+    private final MessageFilter filter;
+    // `lambda_report` reads only REPORT lines.
+    private final boolean skipsOtherLines;
+    // Splits messages of `message_encoding: gzip_base64` into their events, or null.
+    private final SubscriptionPayloadDecoder decoder;
+    private final LogEventSink recordWriter = this::writeRecord;
+    private final boolean stopOnInvalidRecord;
+    // Events read by the previous incremental runs, or null.
+    private final IncrementalWatermark watermark;
+    // The region and account columns are the last two columns when targets are set.
+    private final int regionColumn;
+    private final String region;
+    private final String account;
+    private Long lastEventTime;
+    private Long lastIngestionTime;
+
+    LogEventWriter(PluginTask task, Schema schema, PageBuilder pageBuilder, RecordSampler sampler)
+    {
+        this(task, schema, pageBuilder, sampler, -1, null, null);
+    }
+
+    LogEventWriter(PluginTask task, Schema schema, PageBuilder pageBuilder, RecordSampler sampler, String region, String account)
+    {
+        this(task, schema, pageBuilder, sampler, schema.getColumnCount() - 2, region, account);
+    }
+
+    private LogEventWriter(PluginTask task, Schema schema, PageBuilder pageBuilder, RecordSampler sampler,
+            int regionColumn, String region, String account)
+    {
+        this.regionColumn = regionColumn;
+        this.region = region;
+        this.account = account;
+        this.pageBuilder = pageBuilder;
+        this.sampler = sampler;
+        this.messageFormat = task.getMessageFormat();
+        this.parser = newMessageParser(task, schema);
+        this.filter = MessageFilter.of(task);
+        this.skipsOtherLines = messageFormat.equals(AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_LAMBDA_REPORT);
+        if (task.getMessageEncoding().equals(AbstractCloudwatchLogsInputPlugin.MESSAGE_ENCODING_GZIP_BASE64)) {
+            this.decoder = new SubscriptionPayloadDecoder();
+        }
+        else {
+            this.decoder = null;
+        }
+        this.stopOnInvalidRecord = task.getStopOnInvalidRecord();
+        if (task.getIncremental()) {
+            this.watermark = new IncrementalWatermark(task.getLastEventTime().orNull(), task.getLastIngestionTime().orNull());
+        }
+        else {
+            this.watermark = null;
+        }
+        this.lastEventTime = null;
+        this.lastIngestionTime = null;
+    }
+
+    private static MessageParser newMessageParser(PluginTask task, Schema schema)
+    {
+        String defaultFormat = AbstractCloudwatchLogsInputPlugin.DEFAULT_DATE_FORMAT;
+        switch (task.getMessageFormat()) {
+        case AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_JSON:
+            return new JsonMessageProjector(schema, task.getColumns(), defaultFormat);
+        case AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_LOGFMT:
+            return new LogfmtMessageParser(schema, task.getColumns(), defaultFormat);
+        case AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_LAMBDA_REPORT:
+            return new LambdaReportMessageParser(schema, task.getColumns(), defaultFormat);
+        case AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_REGEX:
+            return new RegexMessageParser(schema, task.getColumns(), task.getMessagePattern().get(), defaultFormat);
+        default:
+            return null;
+        }
+    }
+
+    RecordSampler getSampler()
+    {
+        return sampler;
+    }
+
+    /**
+     * @return the newest event timestamp read, or null if no event is read
+     */
+    Long getLastEventTime()
+    {
+        return lastEventTime;
+    }
+
+    /**
+     * @return the newest ingestion time read, or null if no event is read
+     */
+    Long getLastIngestionTime()
+    {
+        return lastIngestionTime;
+    }
+
+    @Override
+    public boolean write(long timestamp, long ingestionTime, String message)
+    {
+        if (watermark != null && watermark.covers(timestamp, ingestionTime)) {
+            return false;
+        }
+        if (lastEventTime == null || timestamp > lastEventTime) {
+            lastEventTime = timestamp;
+        }
+        if (lastIngestionTime == null || ingestionTime > lastIngestionTime) {
+            lastIngestionTime = ingestionTime;
+        }
+        if (decoder == null) {
+            return writeRecord(timestamp, ingestionTime, message);
+        }
+        try {
+            return decoder.decode(message, timestamp, ingestionTime, recordWriter);
+        }
+        catch (DataException ex) {
+            if (stopOnInvalidRecord) {
+                throw ex;
+            }
+            logger.warn("Skipped invalid gzip_base64 message at {}: {}", timestamp, ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean writeRecord(long timestamp, long ingestionTime, String message)
+    {
+        if (filter != null && !filter.accept(message)) {
+            return false;
+        }
+        if (skipsOtherLines && !message.startsWith(LambdaReportMessageParser.PREFIX)) {
+            // START, END and application lines of Lambda log groups are not invalid REPORT lines.
+            logger.debug("Skipped a line other than REPORT at {}", timestamp);
+            return false;
+        }
+        if (!sampler.accept()) {
+            return false;
+        }
+        pageBuilder.setTimestamp(0, Timestamp.ofEpochMilli(timestamp));
+        if (parser == null) {
+            pageBuilder.setString(1, message);
+        }
+        else if (!parser.parse(message, pageBuilder)) {
+            if (stopOnInvalidRecord) {
+                throw new DataException(String.format("Invalid %s message at %d: %s", messageFormat, timestamp, message));
+            }
+            logger.warn("Skipped invalid {} message at {}: {}", messageFormat, timestamp, message);
+            return false;
+        }
+        if (regionColumn >= 0) {
+            setStringOrNull(regionColumn, region);
+            setStringOrNull(regionColumn + 1, account);
+        }
+
+        pageBuilder.addRecord();
+        return sampler.recordAdded();
+    }
+
+    @Override
+    public void close()
+    {
+        if (decoder != null) {
+            decoder.close();
+        }
+    }
+
+    private void setStringOrNull(int column, String value)
+    {
+        if (value == null) {
+            pageBuilder.setNull(column);
+        }
+        else {
+            pageBuilder.setString(column, value);
+        }
+    }
+}
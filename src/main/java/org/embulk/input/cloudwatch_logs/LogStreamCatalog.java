@@ -0,0 +1,145 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Log streams of a log group kept on disk between runs.
+ *
+ * The file is a small header followed by one fixed-layout record per stream:
+ * name, first/last event timestamps, last ingestion time and stored bytes.
+ * Missing values are stored as -1.
+ */
+class LogStreamCatalog
+{
+    private static final int MAGIC = 0x43574c43;  // "CWLC"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String logGroupName;
+    private final String logStreamNamePrefix;
+    private final long createdAt;
+    private long watermark;
+    private final Map<String, LogStream> logStreams;
+
+    LogStreamCatalog(String logGroupName, String logStreamNamePrefix, long createdAt)
+    {
+        this.logGroupName = logGroupName;
+        this.logStreamNamePrefix = logStreamNamePrefix;
+        this.createdAt = createdAt;
+        this.watermark = Long.MIN_VALUE;
+        this.logStreams = new TreeMap<>();
+    }
+
+    /**
+     * @return null if the file does not exist
+     */
+    static LogStreamCatalog load(Path path)
+            throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            LogStreamCatalog catalog = new LogStreamCatalog(in.readUTF(), in.readUTF(), in.readLong());
+            catalog.watermark = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                LogStream logStream = new LogStream()
+                        .withLogStreamName(in.readUTF())
+                        .withFirstEventTimestamp(toNullable(in.readLong()))
+                        .withLastEventTimestamp(toNullable(in.readLong()))
+                        .withLastIngestionTime(toNullable(in.readLong()))
+                        .withStoredBytes(toNullable(in.readLong()));
+                catalog.logStreams.put(logStream.getLogStreamName(), logStream);
+            }
+            return catalog;
+        }
+        catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes into a temporary file first so that a failed run does not leave a broken catalog.
+     */
+    void save(Path path)
+            throws IOException
+    {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(logGroupName);
+            out.writeUTF(logStreamNamePrefix);
+            out.writeLong(createdAt);
+            out.writeLong(watermark);
+            out.writeInt(logStreams.size());
+            for (LogStream logStream : logStreams.values()) {
+                out.writeUTF(logStream.getLogStreamName());
+                out.writeLong(fromNullable(logStream.getFirstEventTimestamp()));
+                out.writeLong(fromNullable(logStream.getLastEventTimestamp()));
+                out.writeLong(fromNullable(logStream.getLastIngestionTime()));
+                out.writeLong(fromNullable(logStream.getStoredBytes()));
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean isFresh(String logGroupName, String logStreamNamePrefix, long now, long ttlMillis)
+    {
+        return this.logGroupName.equals(logGroupName)
+                && this.logStreamNamePrefix.equals(logStreamNamePrefix)
+                && now - createdAt < ttlMillis;
+    }
+
+    void put(LogStream logStream)
+    {
+        logStreams.put(logStream.getLogStreamName(), logStream);
+        Long lastEventTimestamp = logStream.getLastEventTimestamp();
+        if (lastEventTimestamp != null && lastEventTimestamp > watermark) {
+            watermark = lastEventTimestamp;
+        }
+    }
+
+    /**
+     * The newest lastEventTimestamp of the streams in the catalog.
+     */
+    long getWatermark()
+    {
+        return watermark;
+    }
+
+    /**
+     * @return log streams ordered by name, like DescribeLogStreams
+     */
+    List<LogStream> getLogStreams()
+    {
+        return new ArrayList<>(logStreams.values());
+    }
+
+    private static Long toNullable(long value)
+    {
+        return value == -1 ? null : value;
+    }
+
+    private static long fromNullable(Long value)
+    {
+        return value == null ? -1 : value;
+    }
+}
@@ -0,0 +1,85 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+
+/**
+ * Parses logfmt messages such as `level=info msg="request done" status=200`.
+ * A key without a value is handled as `true`.
+ */
+class LogfmtMessageParser
+        extends KeyValueMessageParser
+{
+    LogfmtMessageParser(Schema schema, SchemaConfig columnConfigs, String defaultTimestampFormat)
+    {
+        super(schema, columnConfigs, defaultTimestampFormat);
+    }
+
+    @Override
+    protected boolean scan(String message, PairHandler handler)
+    {
+        return scanPairs(message, handler);
+    }
+
+    static boolean scanPairs(String message, PairHandler handler)
+    {
+        int length = message.length();
+        int pairs = 0;
+        int i = 0;
+        while (i < length) {
+            while (i < length && message.charAt(i) == ' ') {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            int keyStart = i;
+            while (i < length && message.charAt(i) != '=' && message.charAt(i) != ' ') {
+                i++;
+            }
+            if (i == keyStart) {
+                return false;
+            }
+            String key = message.substring(keyStart, i);
+            boolean wanted = handler.wants(key);
+            if (i >= length || message.charAt(i) != '=') {
+                if (wanted) {
+                    handler.accept(key, "true");
+                }
+                continue;
+            }
+            i++;
+            pairs++;
+            if (i < length && message.charAt(i) == '"') {
+                i++;
+                StringBuilder value = wanted ? new StringBuilder() : null;
+                while (i < length && message.charAt(i) != '"') {
+                    if (message.charAt(i) == '\\' && i + 1 < length) {
+                        i++;
+                    }
+                    if (value != null) {
+                        value.append(message.charAt(i));
+                    }
+                    i++;
+                }
+                if (i >= length) {
+                    return false;  // unterminated quoted value
+                }
+                i++;
+                if (wanted) {
+                    handler.accept(key, value.toString());
+                }
+            }
+            else {
+                int valueStart = i;
+                while (i < length && message.charAt(i) != ' ') {
+                    i++;
+                }
+                if (wanted) {
+                    handler.accept(key, message.substring(valueStart, i));
+                }
+            }
+        }
+        return pairs > 0;
+    }
+}
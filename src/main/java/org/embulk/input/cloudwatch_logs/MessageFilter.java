@@ -0,0 +1,54 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+
+/**
+ * Drops events by `include_pattern` and `exclude_patterns` before they are parsed
+ * and added to a page. The patterns are compiled once per task.
+ */
+class MessageFilter
+{
+    private final PrefilteredPattern include;
+    private final List<PrefilteredPattern> excludes;
+
+    private MessageFilter(PrefilteredPattern include, List<PrefilteredPattern> excludes)
+    {
+        this.include = include;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @return a filter, or null if no pattern is configured
+     */
+    static MessageFilter of(PluginTask task)
+    {
+        if (!task.getIncludePattern().isPresent() && task.getExcludePatterns().isEmpty()) {
+            return null;
+        }
+        PrefilteredPattern include = null;
+        if (task.getIncludePattern().isPresent()) {
+            include = PrefilteredPattern.compile(task.getIncludePattern().get());
+        }
+        List<PrefilteredPattern> excludes = new ArrayList<>();
+        for (String exclude : task.getExcludePatterns()) {
+            excludes.add(PrefilteredPattern.compile(exclude));
+        }
+        return new MessageFilter(include, excludes);
+    }
+
+    boolean accept(String message)
+    {
+        if (include != null && !include.find(message)) {
+            return false;
+        }
+        for (PrefilteredPattern exclude : excludes) {
+            if (exclude.find(message)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
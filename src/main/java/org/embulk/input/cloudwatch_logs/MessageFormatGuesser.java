@@ -0,0 +1,242 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.embulk.config.ConfigDiff;
+import org.embulk.spi.Exec;
+
+/**
+ * Guesses `message_format` and `columns` from sampled CloudWatch Logs messages.
+ */
+class MessageFormatGuesser
+{
+    private static final Pattern LOGFMT_START = Pattern.compile("^[A-Za-z_][\\w.\\-]*=");
+
+    enum Format
+    {
+        TEXT(AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_TEXT),
+        JSON(AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_JSON),
+        LOGFMT(AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_LOGFMT),
+        LAMBDA_REPORT(AbstractCloudwatchLogsInputPlugin.MESSAGE_FORMAT_LAMBDA_REPORT);
+
+        private final String name;
+
+        Format(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    enum FieldType
+    {
+        BOOLEAN("boolean"),
+        LONG("long"),
+        DOUBLE("double"),
+        STRING("string"),
+        JSON("json");
+
+        private final String name;
+
+        FieldType(String name)
+        {
+            this.name = name;
+        }
+
+        FieldType merge(FieldType other)
+        {
+            if (this == other) {
+                return this;
+            }
+            if (this == JSON || other == JSON) {
+                return JSON;
+            }
+            if ((this == LONG && other == DOUBLE) || (this == DOUBLE && other == LONG)) {
+                return DOUBLE;
+            }
+            return STRING;
+        }
+
+        static FieldType ofText(String value)
+        {
+            if ("true".equals(value) || "false".equals(value)) {
+                return BOOLEAN;
+            }
+            try {
+                Long.parseLong(value);
+                return LONG;
+            }
+            catch (NumberFormatException ex) {
+                // not a long value
+            }
+            try {
+                Double.parseDouble(value);
+                return DOUBLE;
+            }
+            catch (NumberFormatException ex) {
+                return STRING;
+            }
+        }
+    }
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Map<Format, Integer> votes = new EnumMap<>(Format.class);
+    private final Map<Format, Map<String, FieldType>> fields = new EnumMap<>(Format.class);
+    private int samples = 0;
+
+    public ConfigDiff guess(List<String> messages)
+    {
+        for (String message : messages) {
+            add(message);
+        }
+
+        ConfigDiff diff = Exec.newConfigDiff();
+        Format format = getFormat();
+        if (format == Format.TEXT) {
+            return diff;
+        }
+        List<Map<String, Object>> columns = new ArrayList<>();
+        for (Map.Entry<String, FieldType> field : fields.get(format).entrySet()) {
+            if ("timestamp".equals(field.getKey())) {
+                continue;  // reserved for the event timestamp
+            }
+            Map<String, Object> column = new LinkedHashMap<>();
+            column.put("name", field.getKey());
+            column.put("type", field.getValue().name);
+            columns.add(column);
+        }
+        if (columns.isEmpty()) {
+            return diff;
+        }
+        diff.set("message_format", format.name);
+        diff.set("columns", columns);
+        if (format == Format.LAMBDA_REPORT) {
+            // Lets the other lines be dropped before they are decoded.
+            diff.set("include_pattern", "^" + LambdaReportMessageParser.PREFIX);
+        }
+        return diff;
+    }
+
+    void add(String message)
+    {
+        samples++;
+        String trimmed = message.trim();
+        Map<String, FieldType> found = new LinkedHashMap<>();
+        Format format = Format.TEXT;
+        if (trimmed.startsWith("{")) {
+            if (scanJson(trimmed, found)) {
+                format = Format.JSON;
+            }
+        }
+        else if (trimmed.startsWith(LambdaReportMessageParser.PREFIX)) {
+            if (LambdaReportMessageParser.scanPairs(trimmed, new Collector(found))) {
+                format = Format.LAMBDA_REPORT;
+            }
+        }
+        else if (LOGFMT_START.matcher(trimmed).find()) {
+            if (LogfmtMessageParser.scanPairs(trimmed, new Collector(found)) && found.size() >= 2) {
+                format = Format.LOGFMT;
+            }
+        }
+        votes.merge(format, 1, Integer::sum);
+        if (format != Format.TEXT) {
+            Map<String, FieldType> known = fields.computeIfAbsent(format, f -> new LinkedHashMap<>());
+            for (Map.Entry<String, FieldType> field : found.entrySet()) {
+                known.merge(field.getKey(), field.getValue(), FieldType::merge);
+            }
+        }
+    }
+
+    /**
+     * The most frequent structured format is chosen when it appears in at least a quarter of
+     * the samples. Lambda log groups, for example, have START and END lines along with REPORT lines.
+     */
+    Format getFormat()
+    {
+        Format best = Format.TEXT;
+        int bestVotes = 0;
+        for (Map.Entry<Format, Integer> vote : votes.entrySet()) {
+            if (vote.getKey() != Format.TEXT && vote.getValue() > bestVotes) {
+                best = vote.getKey();
+                bestVotes = vote.getValue();
+            }
+        }
+        if (bestVotes == 0 || bestVotes * 4 < samples) {
+            return Format.TEXT;
+        }
+        return best;
+    }
+
+    private boolean scanJson(String message, Map<String, FieldType> found)
+    {
+        try (JsonParser parser = factory.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                FieldType type;
+                switch (token) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    parser.skipChildren();
+                    type = FieldType.JSON;
+                    break;
+                case VALUE_NUMBER_INT:
+                    type = FieldType.LONG;
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    type = FieldType.DOUBLE;
+                    break;
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    type = FieldType.BOOLEAN;
+                    break;
+                case VALUE_NULL:
+                    continue;
+                default:
+                    type = FieldType.STRING;
+                    break;
+                }
+                found.merge(name, type, FieldType::merge);
+            }
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static class Collector
+            implements KeyValueMessageParser.PairHandler
+    {
+        private final Map<String, FieldType> found;
+
+        Collector(Map<String, FieldType> found)
+        {
+            this.found = found;
+        }
+
+        @Override
+        public boolean wants(String key)
+        {
+            return true;
+        }
+
+        @Override
+        public void accept(String key, String value)
+        {
+            found.merge(key, FieldType.ofText(value), FieldType::merge);
+        }
+    }
+}
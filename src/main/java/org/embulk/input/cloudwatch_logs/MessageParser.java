@@ -0,0 +1,14 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.spi.PageBuilder;
+
+/**
+ * Fills the columns following the timestamp column from a CloudWatch Logs message.
+ */
+interface MessageParser
+{
+    /**
+     * @return false if the message is not in the expected format
+     */
+    boolean parse(String message, PageBuilder pageBuilder);
+}
@@ -0,0 +1,149 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.embulk.spi.DataException;
+import org.embulk.spi.time.Timestamp;
+
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+
+/**
+ * Merges events of log streams in timestamp order.
+ *
+ * Each open stream keeps one page of events, and streams are ordered by their current
+ * event in a min-heap. A stream is opened only when the merge reaches its first event
+ * timestamp, so the number of open streams is bounded by the streams overlapping in time.
+ */
+class OrderedLogStreamMerger
+{
+    private final CloudWatchLogsDrainer drainer;
+    private final int maxOpenStreams;
+    private final boolean firstPageOnly;
+
+    OrderedLogStreamMerger(CloudWatchLogsDrainer drainer, int maxOpenStreams, boolean firstPageOnly)
+    {
+        this.drainer = drainer;
+        this.maxOpenStreams = maxOpenStreams;
+        this.firstPageOnly = firstPageOnly;
+    }
+
+    void merge(List<LogStream> logStreams, LogEventSink sink)
+    {
+        merge(logStreams, sink, new StreamMetrics(false));
+    }
+
+    void merge(List<LogStream> logStreams, LogEventSink sink, StreamMetrics metrics)
+    {
+        List<LogStream> pending = new ArrayList<>(logStreams);
+        pending.sort(Comparator.comparingLong(OrderedLogStreamMerger::firstEventTimestamp));
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, Math.min(pending.size(), maxOpenStreams)));
+        int next = 0;
+        while (true) {
+            while (next < pending.size()
+                   && (heap.isEmpty() || firstEventTimestamp(pending.get(next)) <= heap.peek().timestamp())) {
+                if (heap.size() >= maxOpenStreams) {
+                    throw new DataException(String.format(
+                            "More than %d log streams overlap in time at %s. Increase max_open_streams or narrow the time range.",
+                            maxOpenStreams, Timestamp.ofEpochMilli(heap.peek().timestamp())));
+                }
+                Cursor cursor = new Cursor(pending.get(next).getLogStreamName(), next);
+                next++;
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+            Cursor cursor = heap.poll();
+            if (cursor == null) {
+                return;
+            }
+            OutputLogEvent event = cursor.current();
+            metrics.observe(cursor.logStreamName, event.getTimestamp(), ingestionTime(event));
+            if (sink.write(event.getTimestamp(), ingestionTime(event), event.getMessage())) {
+                return;
+            }
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+    }
+
+    private static long ingestionTime(OutputLogEvent event)
+    {
+        Long ingestionTime = event.getIngestionTime();
+        return ingestionTime != null ? ingestionTime : 0;
+    }
+
+    private static long firstEventTimestamp(LogStream logStream)
+    {
+        Long timestamp = logStream.getFirstEventTimestamp();
+        return timestamp != null ? timestamp : Long.MIN_VALUE;
+    }
+
+    private class Cursor
+            implements Comparable<Cursor>
+    {
+        private final String logStreamName;
+        private final int order;
+        private List<OutputLogEvent> page;
+        private int index;
+        private String nextToken;
+        private boolean exhausted;
+        private final PageSizeController pageSize;
+
+        Cursor(String logStreamName, int order)
+        {
+            this.logStreamName = logStreamName;
+            this.order = order;
+            this.page = new ArrayList<>();
+            this.index = -1;
+            this.nextToken = null;
+            this.exhausted = false;
+            this.pageSize = drainer.newPageSizeController();
+        }
+
+        long timestamp()
+        {
+            return page.get(index).getTimestamp();
+        }
+
+        OutputLogEvent current()
+        {
+            return page.get(index);
+        }
+
+        /**
+         * @return false if the stream has no more events
+         */
+        boolean advance()
+        {
+            index++;
+            while (index >= page.size()) {
+                if (exhausted) {
+                    return false;
+                }
+                GetLogEventsResult result = drainer.getEvents(logStreamName, nextToken, pageSize);
+                // GetLogEvents returns the same forward token again at the end of the stream.
+                String forwardToken = result.getNextForwardToken();
+                exhausted = firstPageOnly || forwardToken == null || forwardToken.equals(nextToken);
+                nextToken = forwardToken;
+                page = result.getEvents();
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other)
+        {
+            int compared = Long.compare(timestamp(), other.timestamp());
+            return compared != 0 ? compared : Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Adjusts the `limit` of GetLogEvents for a stream.
+ *
+ * The first page is small so that the first events arrive quickly. The limit doubles
+ * while full pages come back faster than half of the target latency, and halves when
+ * a page is slower than the target. A page is also kept within a fraction of the free
+ * heap, estimated from the observed message size.
+ */
+class PageSizeController
+{
+    static final int MIN_LIMIT = 10;
+    static final int MAX_LIMIT = 10000;  // GetLogEvents maximum
+    static final int INITIAL_LIMIT = 100;
+    private static final double HEAP_FRACTION = 1.0 / 32;
+    private static final double BYTES_PER_CHAR = 2.0;
+
+    private final long targetLatencyNanos;
+    private final LongSupplier availableHeap;
+    private int limit;
+    private double charsPerEvent;
+
+    PageSizeController(long targetLatencyMillis)
+    {
+        this(targetLatencyMillis, PageSizeController::availableHeap);
+    }
+
+    PageSizeController(long targetLatencyMillis, LongSupplier availableHeap)
+    {
+        this.targetLatencyNanos = targetLatencyMillis * 1000 * 1000;
+        this.availableHeap = availableHeap;
+        this.limit = INITIAL_LIMIT;
+        this.charsPerEvent = 0;
+    }
+
+    int getLimit()
+    {
+        return limit;
+    }
+
+    void observe(long latencyNanos, int events, long chars)
+    {
+        if (events > 0) {
+            double observed = (double) chars / events;
+            charsPerEvent = charsPerEvent == 0 ? observed : charsPerEvent * 0.8 + observed * 0.2;
+        }
+        long next = limit;
+        if (latencyNanos > targetLatencyNanos) {
+            next = limit / 2;
+        }
+        else if (events >= limit && latencyNanos < targetLatencyNanos / 2) {
+            next = (long) limit * 2;
+        }
+        if (charsPerEvent > 0) {
+            next = Math.min(next, (long) (availableHeap.getAsLong() * HEAP_FRACTION / (charsPerEvent * BYTES_PER_CHAR)));
+        }
+        limit = (int) Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, next));
+    }
+
+    private static long availableHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+}
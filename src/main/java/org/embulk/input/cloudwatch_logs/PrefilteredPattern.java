@@ -0,0 +1,263 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.embulk.config.ConfigException;
+
+/**
+ * A regular expression compiled once per task, with a literal which any match contains.
+ *
+ * A message without the literal is rejected by `String.indexOf` before the regular
+ * expression runs. Grok references such as `%{IP:client}` are expanded into named groups.
+ * Each instance reuses one Matcher, so it is not thread safe.
+ */
+class PrefilteredPattern
+{
+    private static final Pattern GROK_REFERENCE = Pattern.compile("%\\{([A-Z0-9_]+)(?::([^}]+))?\\}");
+    private static final Pattern NAMED_GROUP = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+    private static final int MAX_GROK_DEPTH = 8;
+
+    static final Map<String, String> GROK_PATTERNS = ImmutableMap.<String, String>builder()
+            .put("WORD", "\\b\\w+\\b")
+            .put("NOTSPACE", "\\S+")
+            .put("SPACE", "\\s*")
+            .put("DATA", ".*?")
+            .put("GREEDYDATA", ".*")
+            .put("INT", "[+-]?\\d+")
+            .put("NUMBER", "[+-]?(?:\\d+(?:\\.\\d*)?|\\.\\d+)(?:[eE][+-]?\\d+)?")
+            .put("POSINT", "\\b[1-9]\\d*\\b")
+            .put("QUOTEDSTRING", "\"(?:[^\"\\\\]|\\\\.)*\"")
+            .put("UUID", "[A-Fa-f0-9]{8}-(?:[A-Fa-f0-9]{4}-){3}[A-Fa-f0-9]{12}")
+            .put("IPV4", "(?<![0-9])(?:(?:25[0-5]|2[0-4]\\d|1?\\d?\\d)\\.){3}(?:25[0-5]|2[0-4]\\d|1?\\d?\\d)(?![0-9])")
+            .put("IPV6", "[0-9A-Fa-f:]*:[0-9A-Fa-f:.]+")
+            .put("IP", "%{IPV6}|%{IPV4}")
+            .put("HOSTNAME", "\\b[0-9A-Za-z][0-9A-Za-z-]{0,62}(?:\\.[0-9A-Za-z][0-9A-Za-z-]{0,62})*\\.?\\b")
+            .put("IPORHOST", "%{IP}|%{HOSTNAME}")
+            .put("PATH", "(?:/[^\\s?#]*)+")
+            .put("URIPATHPARAM", "/[^\\s]*")
+            .put("HTTPDATE", "\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4}")
+            .put("TIMESTAMP_ISO8601", "\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}(?::?\\d{2}(?:[.,]\\d+)?)?(?:Z|[+-]\\d{2}:?\\d{2})?")
+            .put("LOGLEVEL", "(?i:TRACE|DEBUG|INFO|NOTICE|WARN(?:ING)?|ERROR|ERR|CRIT(?:ICAL)?|FATAL|SEVERE|EMERG(?:ENCY)?)")
+            .build();
+
+    private final Pattern pattern;
+    private final Matcher matcher;
+    private final String literal;
+    // capture name -> group name in the compiled pattern
+    private final Map<String, String> groups;
+
+    private PrefilteredPattern(Pattern pattern, String literal, Map<String, String> groups)
+    {
+        this.pattern = pattern;
+        this.matcher = pattern.matcher("");
+        this.literal = literal;
+        this.groups = groups;
+    }
+
+    static PrefilteredPattern compile(String source)
+    {
+        Map<String, String> groups = new LinkedHashMap<>();
+        String regex = expandGrok(source, groups, 0);
+        Matcher named = NAMED_GROUP.matcher(source);
+        while (named.find()) {
+            groups.put(named.group(1), named.group(1));
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        }
+        catch (PatternSyntaxException ex) {
+            throw new ConfigException(String.format("Invalid pattern '%s': %s", source, ex.getDescription()));
+        }
+        return new PrefilteredPattern(pattern, requiredLiteral(regex), groups);
+    }
+
+    private static String expandGrok(String source, Map<String, String> groups, int depth)
+    {
+        Matcher reference = GROK_REFERENCE.matcher(source);
+        if (!reference.find()) {
+            return source;
+        }
+        if (depth >= MAX_GROK_DEPTH) {
+            throw new ConfigException(String.format("Grok patterns are nested too deeply: %s", source));
+        }
+        StringBuffer expanded = new StringBuffer();
+        do {
+            String definition = GROK_PATTERNS.get(reference.group(1));
+            if (definition == null) {
+                throw new ConfigException(String.format("Unknown grok pattern %%{%s}", reference.group(1)));
+            }
+            String body = expandGrok(definition, groups, depth + 1);
+            String replacement;
+            if (reference.group(2) != null) {
+                // Capture names such as `status_code` are not valid group names in Java.
+                String group = "grok" + groups.size();
+                groups.put(reference.group(2), group);
+                replacement = "(?<" + group + ">" + body + ")";
+            }
+            else {
+                replacement = "(?:" + body + ")";
+            }
+            reference.appendReplacement(expanded, Matcher.quoteReplacement(replacement));
+        } while (reference.find());
+        reference.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    /**
+     * Finds the longest run of literal characters outside groups. Every match contains it
+     * unless the pattern has an alternative at the top level or flags which change matching.
+     * @return the literal, or null if no literal is known
+     */
+    static String requiredLiteral(String regex)
+    {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            int next = i + 1;
+            Character literal = null;
+            if (c == '\\') {
+                if (next >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(next);
+                if ("QpPxuNck0123456789".indexOf(escaped) >= 0) {
+                    // Quoting, properties, code points and back references are not analyzed.
+                    return null;
+                }
+                next++;
+                if (depth == 0 && !Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                }
+            }
+            else if (c == '[') {
+                // Skip a character class.
+                next = skipCharacterClass(regex, next);
+            }
+            else if (c == '{') {
+                // Skip the bounds of a quantifier such as {4} or {2,3}.
+                int end = regex.indexOf('}', next);
+                if (end < 0) {
+                    return null;
+                }
+                next = end + 1;
+            }
+            else if (c == '(') {
+                if (regex.startsWith("(?", i) && i + 2 < length
+                        && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                    int end = i + 2;
+                    while (end < length && regex.charAt(end) != ':' && regex.charAt(end) != ')') {
+                        end++;
+                    }
+                    if (end >= length || regex.charAt(end) == ')') {
+                        // Inline flags such as (?i) change how the rest of the pattern matches.
+                        return null;
+                    }
+                }
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+            }
+            else if (c == '|') {
+                if (depth == 0) {
+                    return null;
+                }
+            }
+            else if (depth == 0 && ".^$*+?}".indexOf(c) < 0) {
+                literal = c;
+            }
+
+            // A quantifier makes the preceding character optional or repeated.
+            char quantifier = next < length ? regex.charAt(next) : 0;
+            if (literal != null && (quantifier == '?' || quantifier == '*' || quantifier == '{')) {
+                literal = null;
+            }
+            if (literal != null) {
+                run.append(literal.charValue());
+            }
+            if (literal == null || quantifier == '+') {
+                if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+            i = next;
+        }
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        return longest.isEmpty() ? null : longest;
+    }
+
+    private static int skipCharacterClass(String regex, int start)
+    {
+        int i = start;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int nesting = 1;
+        while (i < regex.length() && nesting > 0) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                nesting++;
+            }
+            else if (c == ']') {
+                nesting--;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    String getLiteral()
+    {
+        return literal;
+    }
+
+    Map<String, String> getGroups()
+    {
+        return groups;
+    }
+
+    /**
+     * Finds the pattern in the message. After a match, {@link #group} returns the captures.
+     */
+    boolean find(String message)
+    {
+        if (literal != null && message.indexOf(literal) < 0) {
+            return false;
+        }
+        return matcher.reset(message).find();
+    }
+
+    /**
+     * @return the capture of the last match, or null if the group did not participate
+     */
+    String group(String name)
+    {
+        return matcher.group(groups.get(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return pattern.pattern();
+    }
+}
@@ -0,0 +1,50 @@
+package org.embulk.input.cloudwatch_logs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnConfig;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+
+/**
+ * Extracts columns from the capture groups of `message_pattern`.
+ * Each column is filled from the named group, or grok capture, with the same name.
+ */
+class RegexMessageParser
+        implements MessageParser
+{
+    private final PrefilteredPattern pattern;
+    private final ColumnValueSetter setter;
+    private final Column[] columns;
+
+    RegexMessageParser(Schema schema, SchemaConfig columnConfigs, String messagePattern, String defaultTimestampFormat)
+    {
+        this.pattern = PrefilteredPattern.compile(messagePattern);
+        this.setter = new ColumnValueSetter(schema, columnConfigs, defaultTimestampFormat);
+        List<Column> columns = new ArrayList<>();
+        for (ColumnConfig columnConfig : columnConfigs.getColumns()) {
+            if (!pattern.getGroups().containsKey(columnConfig.getName())) {
+                throw new ConfigException(String.format("message_pattern has no capture group named '%s'.",
+                                                        columnConfig.getName()));
+            }
+            columns.add(schema.lookupColumn(columnConfig.getName()));
+        }
+        this.columns = columns.toArray(new Column[0]);
+    }
+
+    @Override
+    public boolean parse(String message, PageBuilder pageBuilder)
+    {
+        if (!pattern.find(message)) {
+            return false;
+        }
+        for (Column column : columns) {
+            setter.set(column, pattern.group(column.getName()), pageBuilder);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-issues a failed request with decorrelated jitter backoff.
+ *
+ * Each request is retried up to `max_retries` times, and a task can retry at most
+ * `retry_budget` times in total. Client errors other than throttling are not retried.
+ */
+class RequestRetrier
+{
+    private static final Logger logger = LoggerFactory.getLogger(RequestRetrier.class);
+    private static final Set<String> THROTTLING_ERROR_CODES = ImmutableSet.of(
+            "Throttling", "ThrottlingException", "ThrottledException", "RequestThrottledException",
+            "TooManyRequestsException", "RequestLimitExceeded", "LimitExceededException");
+
+    private final int maxRetries;
+    private final long initialWaitMillis;
+    private final long maxWaitMillis;
+    private final AtomicInteger budget;
+    private final CircuitBreaker breaker;
+
+    RequestRetrier(int maxRetries, int retryBudget, long initialWaitMillis, long maxWaitMillis, CircuitBreaker breaker)
+    {
+        this.maxRetries = maxRetries;
+        this.initialWaitMillis = initialWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.budget = new AtomicInteger(retryBudget);
+        this.breaker = breaker;
+    }
+
+    <T> T call(String operation, Supplier<T> request)
+    {
+        return call(operation, null, request);
+    }
+
+    /**
+     * @param trace Flight Recorder trace of the call, or null
+     */
+    <T> T call(String operation, FlightRecorderEvents.ApiCallTrace trace, Supplier<T> request)
+    {
+        int retries = 0;
+        long wait = initialWaitMillis;
+        while (true) {
+            try {
+                breaker.awaitClosed();
+                T result = request.get();
+                breaker.recordSuccess();
+                return result;
+            }
+            catch (AmazonClientException ex) {
+                if (!isRetryable(ex)) {
+                    throw ex;
+                }
+                breaker.recordFailure();
+                if (retries >= maxRetries || budget.getAndDecrement() <= 0) {
+                    throw ex;
+                }
+                retries++;
+                wait = nextWait(wait);
+                logger.warn(String.format("%s failed. Retrying %d/%d after %d ms", operation, retries, maxRetries, wait), ex);
+                boolean throttled = isThrottled(ex);
+                FlightRecorderEvents.retry(operation, retries, wait, errorCode(ex), throttled);
+                if (trace != null) {
+                    trace.retried(throttled);
+                }
+                try {
+                    Thread.sleep(wait);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException(operation + " was interrupted", ex);
+            }
+        }
+    }
+
+    /**
+     * Decorrelated jitter: a random wait between the initial wait and three times the previous wait.
+     */
+    private long nextWait(long previous)
+    {
+        long upper = Math.max(initialWaitMillis, Math.min(maxWaitMillis, previous * 3));
+        if (upper <= initialWaitMillis) {
+            return upper;
+        }
+        return ThreadLocalRandom.current().nextLong(initialWaitMillis, upper + 1);
+    }
+
+    static boolean isThrottled(AmazonClientException ex)
+    {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) ex;
+            return serviceException.getStatusCode() == 429
+                    || THROTTLING_ERROR_CODES.contains(serviceException.getErrorCode());
+        }
+        return false;
+    }
+
+    static String errorCode(AmazonClientException ex)
+    {
+        if (ex instanceof AmazonServiceException) {
+            return ((AmazonServiceException) ex).getErrorCode();
+        }
+        return ex.getClass().getSimpleName();
+    }
+
+    static boolean isRetryable(AmazonClientException ex)
+    {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) ex;
+            int statusCode = serviceException.getStatusCode();
+            return statusCode >= 500
+                    || isThrottled(ex)
+                    || (statusCode == 0 && serviceException.getErrorType() == AmazonServiceException.ErrorType.Service);
+        }
+        // e.g. connection reset, socket timeout
+        return ex.isRetryable();
+    }
+}
@@ -0,0 +1,80 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The log streams read by one task when `schedule_streams` is enabled: a time range of
+ * a large stream, a stream of medium size, or a batch of small streams which are read
+ * with one FilterLogEvents chain.
+ */
+public final class ScheduledWork
+{
+    private final int target;
+    private final List<String> logStreamNames;
+    private final Long startTime;
+    private final Long endTime;
+    private final boolean batch;
+
+    @JsonCreator
+    public ScheduledWork(
+            @JsonProperty("target") int target,
+            @JsonProperty("log_stream_names") List<String> logStreamNames,
+            @JsonProperty("start_time") Long startTime,
+            @JsonProperty("end_time") Long endTime,
+            @JsonProperty("batch") boolean batch)
+    {
+        this.target = target;
+        this.logStreamNames = logStreamNames;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.batch = batch;
+    }
+
+    /**
+     * @return the index of the target in `targets`, or 0 without targets
+     */
+    @JsonProperty("target")
+    public int getTarget()
+    {
+        return target;
+    }
+
+    @JsonProperty("log_stream_names")
+    public List<String> getLogStreamNames()
+    {
+        return logStreamNames;
+    }
+
+    /**
+     * @return the inclusive start of the time range, or null for no limit
+     */
+    @JsonProperty("start_time")
+    public Long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return the exclusive end of the time range, or null for no limit
+     */
+    @JsonProperty("end_time")
+    public Long getEndTime()
+    {
+        return endTime;
+    }
+
+    @JsonProperty("batch")
+    public boolean isBatch()
+    {
+        return batch;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s%s [%s, %s)", batch ? "batch of " : "", logStreamNames, startTime, endTime);
+    }
+}
@@ -0,0 +1,178 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Freshness of each log stream read by a task for `stream_metrics`: the newest event
+ * timestamp and ingestion time read, lastIngestionTime reported by DescribeLogStreams,
+ * and the lag between them.
+ *
+ * A task updates the metrics from the thread which fetches events.
+ */
+class StreamMetrics
+{
+    static final String TASK_REPORT_KEY = "stream_metrics";
+
+    private final boolean enabled;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    StreamMetrics(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    private static class Entry
+    {
+        private Long lastEventTime;
+        private Long lastIngestionTime;
+        private Long listedLastIngestionTime;
+
+        void observe(long timestamp, long ingestionTime)
+        {
+            if (lastEventTime == null || timestamp > lastEventTime) {
+                lastEventTime = timestamp;
+            }
+            if (lastIngestionTime == null || ingestionTime > lastIngestionTime) {
+                lastIngestionTime = ingestionTime;
+            }
+        }
+    }
+
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records lastIngestionTime of a stream which the task reads.
+     */
+    void listed(LogStream logStream)
+    {
+        if (enabled) {
+            entry(logStream.getLogStreamName()).listedLastIngestionTime = logStream.getLastIngestionTime();
+        }
+    }
+
+    void observe(String logStreamName, long timestamp, long ingestionTime)
+    {
+        if (enabled) {
+            entry(logStreamName).observe(timestamp, ingestionTime);
+        }
+    }
+
+    /**
+     * @return a sink which records events of the stream and writes them into the sink
+     */
+    LogEventSink track(String logStreamName, final LogEventSink sink)
+    {
+        if (!enabled) {
+            return sink;
+        }
+        final Entry entry = entry(logStreamName);
+        return (timestamp, ingestionTime, message) -> {
+            entry.observe(timestamp, ingestionTime);
+            return sink.write(timestamp, ingestionTime, message);
+        };
+    }
+
+    private Entry entry(String logStreamName)
+    {
+        return entries.computeIfAbsent(logStreamName, name -> new Entry());
+    }
+
+    /**
+     * @param now end time of the task, from which the age of the newest event is measured
+     * @param region region of the target, or null
+     * @param account account of the target, or null
+     */
+    List<Map<String, Object>> toReport(long now, String region, String account)
+    {
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (Map.Entry<String, Entry> stream : entries.entrySet()) {
+            Entry entry = stream.getValue();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("log_stream_name", stream.getKey());
+            if (region != null) {
+                values.put("region", region);
+            }
+            if (account != null) {
+                values.put("account", account);
+            }
+            values.put("last_event_time", entry.lastEventTime);
+            values.put("last_ingestion_time", entry.lastIngestionTime);
+            values.put("listed_last_ingestion_time", entry.listedLastIngestionTime);
+            // Ingested events which this run did not read.
+            Long lag = null;
+            if (entry.listedLastIngestionTime != null && entry.lastIngestionTime != null) {
+                lag = Math.max(0, entry.listedLastIngestionTime - entry.lastIngestionTime);
+            }
+            values.put("lag_millis", lag);
+            values.put("age_millis", entry.lastEventTime != null ? now - entry.lastEventTime : null);
+            report.add(values);
+        }
+        return report;
+    }
+
+    /**
+     * Writes the reports of all tasks in the Prometheus text format, replacing the file atomically.
+     */
+    static void writePrometheus(Path path, String logGroupName, List<Map<String, Object>> reports)
+            throws IOException
+    {
+        String[][] metrics = {
+            {"last_event_time", "cloudwatch_logs_stream_last_event_timestamp_seconds", "Newest event timestamp read from the log stream."},
+            {"last_ingestion_time", "cloudwatch_logs_stream_last_ingestion_timestamp_seconds", "Newest ingestion time read from the log stream."},
+            {"listed_last_ingestion_time", "cloudwatch_logs_stream_listed_last_ingestion_timestamp_seconds", "lastIngestionTime of the log stream reported by DescribeLogStreams."},
+            {"lag_millis", "cloudwatch_logs_stream_lag_seconds", "Time between the newest ingestion time read and lastIngestionTime of the log stream."},
+            {"age_millis", "cloudwatch_logs_stream_age_seconds", "Time between the newest event read and the end of the run."},
+        };
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String[] metric : metrics) {
+                out.write("# HELP " + metric[1] + " " + metric[2] + "\n");
+                out.write("# TYPE " + metric[1] + " gauge\n");
+                for (Map<String, Object> report : reports) {
+                    Object value = report.get(metric[0]);
+                    if (!(value instanceof Number)) {
+                        continue;
+                    }
+                    out.write(metric[1] + "{" + labels(logGroupName, report) + "} "
+                              + (((Number) value).longValue() / 1000.0) + "\n");
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String labels(String logGroupName, Map<String, Object> report)
+    {
+        StringBuilder labels = new StringBuilder();
+        labels.append("log_group=\"").append(escape(logGroupName)).append('"');
+        labels.append(",log_stream=\"").append(escape(String.valueOf(report.get("log_stream_name")))).append('"');
+        for (String name : new String[] {"region", "account"}) {
+            if (report.get(name) != null) {
+                labels.append(',').append(name).append("=\"").append(escape(String.valueOf(report.get(name)))).append('"');
+            }
+        }
+        return labels.toString();
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
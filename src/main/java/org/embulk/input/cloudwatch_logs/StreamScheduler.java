@@ -0,0 +1,120 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Divides log streams into tasks of similar size for `schedule_streams`.
+ *
+ * A stream larger than `split_stream_bytes` is split into time ranges of about that size.
+ * Streams up to `batch_stream_bytes` are packed into batches of up to `split_stream_bytes`
+ * and `max_streams_per_batch` streams. Other streams are read by one task each.
+ * CloudWatch Logs reports storedBytes of most streams as 0, so their size is estimated from
+ * storedBytes of the log group and their event time spans, see {@link LoadPlanner}.
+ * Streams of unknown size may be large, so they are not packed with others by size, but
+ * batched by `max_streams_per_batch` alone. One task per stream would make a task for each
+ * of many thousands of streams.
+ */
+class StreamScheduler
+{
+    private final Long startTime;
+    private final Long endTime;
+    private final long splitStreamBytes;
+    private final long batchStreamBytes;
+    private final int maxStreamsPerBatch;
+
+    StreamScheduler(Long startTime, Long endTime, long splitStreamBytes, long batchStreamBytes, int maxStreamsPerBatch)
+    {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.splitStreamBytes = splitStreamBytes;
+        this.batchStreamBytes = batchStreamBytes;
+        this.maxStreamsPerBatch = maxStreamsPerBatch;
+    }
+
+    /**
+     * @param logStreams streams with events in the time range
+     * @param target index of the target of the streams
+     * @param bytesPerMilli bytes per millisecond of streams without storedBytes, or -1 if unknown
+     */
+    List<ScheduledWork> schedule(List<LogStream> logStreams, int target, double bytesPerMilli)
+    {
+        List<LogStream> sorted = new ArrayList<>(logStreams);
+        sorted.sort(Comparator.comparing(LogStream::getLogStreamName));
+
+        List<ScheduledWork> works = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long batchBytes = 0;
+        List<String> unknownBatch = new ArrayList<>();
+        for (LogStream logStream : sorted) {
+            long bytes = LoadPlanner.estimateBytes(logStream, startTime, endTime, bytesPerMilli);
+            if (bytes < 0) {
+                unknownBatch.add(logStream.getLogStreamName());
+                if (unknownBatch.size() >= maxStreamsPerBatch) {
+                    works.add(batch(unknownBatch, target));
+                    unknownBatch = new ArrayList<>();
+                }
+            }
+            else if (bytes <= batchStreamBytes) {
+                if (!batch.isEmpty() && (batch.size() >= maxStreamsPerBatch || batchBytes + bytes > splitStreamBytes)) {
+                    works.add(batch(batch, target));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(logStream.getLogStreamName());
+                batchBytes += bytes;
+            }
+            else if (bytes > splitStreamBytes) {
+                works.addAll(split(logStream, bytes, target));
+            }
+            else {
+                works.add(single(logStream, startTime, endTime, target));
+            }
+        }
+        if (!batch.isEmpty()) {
+            works.add(batch(batch, target));
+        }
+        if (!unknownBatch.isEmpty()) {
+            works.add(batch(unknownBatch, target));
+        }
+        return works;
+    }
+
+    private ScheduledWork batch(List<String> logStreamNames, int target)
+    {
+        return new ScheduledWork(target, logStreamNames, startTime, endTime, true);
+    }
+
+    private List<ScheduledWork> split(LogStream logStream, long bytes, int target)
+    {
+        Long first = logStream.getFirstEventTimestamp();
+        Long last = logStream.getLastEventTimestamp();
+        if (first == null || last == null) {
+            return Collections.singletonList(single(logStream, startTime, endTime, target));
+        }
+        long from = startTime != null ? Math.max(first, startTime) : first;
+        long to = endTime != null ? Math.min(last, endTime) : last;
+        long ranges = Math.min((bytes + splitStreamBytes - 1) / splitStreamBytes, to - from);
+        if (ranges <= 1) {
+            return Collections.singletonList(single(logStream, startTime, endTime, target));
+        }
+        List<ScheduledWork> works = new ArrayList<>();
+        for (long i = 0; i < ranges; i++) {
+            // The first and last ranges keep the configured bounds. lastEventTimestamp may lag
+            // behind the events, and the last range reads until end_time.
+            Long rangeStart = i == 0 ? startTime : Long.valueOf(from + (to - from) * i / ranges);
+            Long rangeEnd = i == ranges - 1 ? endTime : Long.valueOf(from + (to - from) * (i + 1) / ranges);
+            works.add(single(logStream, rangeStart, rangeEnd, target));
+        }
+        return works;
+    }
+
+    private static ScheduledWork single(LogStream logStream, Long startTime, Long endTime, int target)
+    {
+        return new ScheduledWork(target, Collections.singletonList(logStream.getLogStreamName()), startTime, endTime, false);
+    }
+}
@@ -0,0 +1,293 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.DataException;
+
+/**
+ * Calls GetLogEvents and decodes the response body incrementally.
+ *
+ * Events are handed to a {@link LogEventSink} while the body is being read, so neither
+ * a GetLogEventsResult nor a list of OutputLogEvent is built for each page.
+ */
+class StreamingLogEventsClient
+        implements Closeable
+{
+    private static final String SERVICE_NAME = "logs";
+    private static final String TARGET = "Logs_20140328.GetLogEvents";
+    private static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+
+    private final AWSCredentialsProvider credentialsProvider;
+    private final AWS4Signer signer;
+    private final URI endpoint;
+    private final CloseableHttpClient httpClient;
+    private final JsonFactory factory = new JsonFactory();
+
+    StreamingLogEventsClient(AWSCredentialsProvider credentialsProvider, String region, ClientConfiguration clientConfig)
+    {
+        this.credentialsProvider = credentialsProvider;
+        this.signer = new AWS4Signer();
+        signer.setServiceName(SERVICE_NAME);
+        signer.setRegionName(region);
+        // The endpoint of the partition of the region, such as amazonaws.com.cn for China regions.
+        Region resolved = RegionUtils.getRegion(region);
+        if (resolved == null) {
+            throw new ConfigException(String.format("Unknown region '%s'", region));
+        }
+        this.endpoint = URI.create("https://" + resolved.getServiceEndpoint(SERVICE_NAME));
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(clientConfig.getConnectionTimeout())
+                .setSocketTimeout(clientConfig.getSocketTimeout())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setMaxConnTotal(clientConfig.getMaxConnections())
+                .setMaxConnPerRoute(clientConfig.getMaxConnections())
+                .build();
+    }
+
+    @VisibleForTesting
+    URI getEndpoint()
+    {
+        return endpoint;
+    }
+
+    /**
+     * How the decoding of a page ended.
+     */
+    static class PageEnd
+    {
+        private static final PageEnd STOPPED = new PageEnd(null);
+
+        private final String nextForwardToken;
+
+        private PageEnd(String nextForwardToken)
+        {
+            this.nextForwardToken = nextForwardToken;
+        }
+
+        /**
+         * @return true if the sink needs no more events, and the rest of the page is not read
+         */
+        boolean isStopped()
+        {
+            return this == STOPPED;
+        }
+
+        /**
+         * @return the next forward token, or null if stopped
+         */
+        String getNextForwardToken()
+        {
+            return nextForwardToken;
+        }
+    }
+
+    PageEnd getLogEvents(GetLogEventsRequest request, LogEventSink sink)
+    {
+        HttpPost post = newSignedPost(request);
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            HttpEntity entity = response.getEntity();
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw toServiceException(statusCode, entity);
+            }
+            try (InputStream in = entity.getContent()) {
+                PageEnd end = decode(in, sink);
+                if (end.isStopped()) {
+                    // Do not read the rest of the body.
+                    post.abort();
+                }
+                return end;
+            }
+        }
+        catch (IOException ex) {
+            AmazonServiceException serviceException = new AmazonServiceException("Failed to read GetLogEvents response", ex);
+            serviceException.setErrorType(AmazonServiceException.ErrorType.Service);
+            serviceException.setServiceName(SERVICE_NAME);
+            throw serviceException;
+        }
+    }
+
+    @VisibleForTesting
+    PageEnd decode(InputStream in, LogEventSink sink)
+            throws IOException
+    {
+        String nextToken = null;
+        try (JsonParser parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("GetLogEvents response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("events".equals(name) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        long timestamp = 0;
+                        long ingestionTime = 0;
+                        // CloudWatch Logs does not store empty messages, but a missing one is read as empty.
+                        String message = "";
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String field = parser.getCurrentName();
+                            parser.nextToken();
+                            if ("timestamp".equals(field)) {
+                                timestamp = parser.getLongValue();
+                            }
+                            else if ("message".equals(field)) {
+                                message = parser.getText();
+                            }
+                            else if ("ingestionTime".equals(field)) {
+                                ingestionTime = parser.getLongValue();
+                            }
+                            else {
+                                parser.skipChildren();
+                            }
+                        }
+                        if (sink.write(timestamp, ingestionTime, message)) {
+                            return PageEnd.STOPPED;
+                        }
+                    }
+                }
+                else if ("nextForwardToken".equals(name) && token == JsonToken.VALUE_STRING) {
+                    nextToken = parser.getText();
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (nextToken == null) {
+            // Without the token, the end of the stream can not be told from the end of a page.
+            throw new DataException("GetLogEvents response has no nextForwardToken");
+        }
+        return new PageEnd(nextToken);
+    }
+
+    private HttpPost newSignedPost(GetLogEventsRequest request)
+    {
+        byte[] body = toJson(request);
+        DefaultRequest<Void> signable = new DefaultRequest<>(SERVICE_NAME);
+        signable.setHttpMethod(HttpMethodName.POST);
+        signable.setEndpoint(endpoint);
+        signable.setResourcePath("/");
+        signable.addHeader("X-Amz-Target", TARGET);
+        signable.addHeader("Content-Type", CONTENT_TYPE);
+        signable.setContent(new ByteArrayInputStream(body));
+        signer.sign(signable, credentialsProvider.getCredentials());
+
+        HttpPost post = new HttpPost(endpoint);
+        for (Map.Entry<String, String> header : signable.getHeaders().entrySet()) {
+            if (!"Content-Length".equalsIgnoreCase(header.getKey())) {
+                post.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        post.setEntity(new ByteArrayEntity(body));
+        return post;
+    }
+
+    private byte[] toJson(GetLogEventsRequest request)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("logGroupName", request.getLogGroupName());
+            generator.writeStringField("logStreamName", request.getLogStreamName());
+            if (request.getStartTime() != null) {
+                generator.writeNumberField("startTime", request.getStartTime());
+            }
+            if (request.getEndTime() != null) {
+                generator.writeNumberField("endTime", request.getEndTime());
+            }
+            if (request.getNextToken() != null) {
+                generator.writeStringField("nextToken", request.getNextToken());
+            }
+            if (request.getLimit() != null) {
+                generator.writeNumberField("limit", request.getLimit());
+            }
+            if (request.getStartFromHead() != null) {
+                generator.writeBooleanField("startFromHead", request.getStartFromHead());
+            }
+            generator.writeEndObject();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    private AmazonServiceException toServiceException(int statusCode, HttpEntity entity)
+            throws IOException
+    {
+        String errorCode = null;
+        String errorMessage = null;
+        if (entity != null) {
+            byte[] body = ByteStreams.toByteArray(entity.getContent());
+            try (JsonParser parser = factory.createParser(body)) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("__type".equals(name)) {
+                            // e.g. "com.amazonaws.logs#ResourceNotFoundException"
+                            String type = parser.getText();
+                            errorCode = type.substring(type.lastIndexOf('#') + 1);
+                        }
+                        else if ("message".equalsIgnoreCase(name)) {
+                            errorMessage = parser.getText();
+                        }
+                        else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            }
+            catch (IOException ex) {
+                errorMessage = new String(body, StandardCharsets.UTF_8);
+            }
+        }
+        AmazonServiceException ex = new AmazonServiceException(errorMessage);
+        ex.setStatusCode(statusCode);
+        ex.setErrorCode(errorCode);
+        ex.setServiceName(SERVICE_NAME);
+        ex.setErrorType(statusCode < 500 ? AmazonServiceException.ErrorType.Client : AmazonServiceException.ErrorType.Service);
+        return ex;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        httpClient.close();
+    }
+}
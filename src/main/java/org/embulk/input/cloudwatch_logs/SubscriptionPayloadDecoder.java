@@ -0,0 +1,234 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.embulk.spi.DataException;
+
+/**
+ * Splits messages of `message_encoding: gzip_base64` into the events they carry.
+ *
+ * A message is a base64-encoded, gzip-compressed payload of the subscription filter
+ * format, whose `logEvents` array holds the events. The decode and inflate buffers and
+ * the inflater are kept for the next message, so a task decodes messages without
+ * allocating buffers once they have grown to the largest payload. Closing the decoder
+ * releases the native memory of the inflater.
+ */
+class SubscriptionPayloadDecoder
+        implements Closeable
+{
+    // Payloads are inflated up to this size, so that a corrupt message can not exhaust the heap.
+    static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+
+    private static final int[] BASE64 = new int[128];
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[4096];
+    private byte[] payload = new byte[16384];
+
+    /**
+     * Writes the events of a message into the sink. Events without a timestamp take
+     * the timestamp of the message, and every event takes its ingestion time.
+     * @return true if the sink needs no more events
+     * @throws DataException if the message is not a valid payload
+     */
+    boolean decode(String message, long timestamp, long ingestionTime, LogEventSink sink)
+    {
+        int compressedLength = decodeBase64(message);
+        int payloadLength = inflate(compressedLength);
+        try (JsonParser parser = factory.createParser(payload, 0, payloadLength)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DataException("Payload is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (name.equals("messageType") && "CONTROL_MESSAGE".equals(parser.getValueAsString())) {
+                    // Sent by CloudWatch Logs to check that a subscription destination is reachable.
+                    return false;
+                }
+                if (!name.equals("logEvents") || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    long eventTimestamp = timestamp;
+                    String eventMessage = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if (field.equals("timestamp")) {
+                            eventTimestamp = parser.getValueAsLong(timestamp);
+                        }
+                        else if (field.equals("message")) {
+                            eventMessage = parser.getValueAsString();
+                        }
+                        else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (eventMessage != null && sink.write(eventTimestamp, ingestionTime, eventMessage)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new DataException("Payload is not valid JSON: " + ex.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of bytes decoded into `compressed`
+     */
+    private int decodeBase64(String message)
+    {
+        int length = message.length();
+        if (compressed.length < length / 4 * 3 + 3) {
+            compressed = new byte[Math.max(compressed.length * 2, length / 4 * 3 + 3)];
+        }
+        int decoded = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = c < 128 ? BASE64[c] : -1;
+            if (value < 0) {
+                throw new DataException(String.format("Invalid base64 character at %d", i));
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                compressed[decoded++] = (byte) (bits >> 16);
+                compressed[decoded++] = (byte) (bits >> 8);
+                compressed[decoded++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new DataException("Truncated base64 message");
+        }
+        if (count == 2) {
+            compressed[decoded++] = (byte) (bits >> 4);
+        }
+        else if (count == 3) {
+            compressed[decoded++] = (byte) (bits >> 10);
+            compressed[decoded++] = (byte) (bits >> 2);
+        }
+        return decoded;
+    }
+
+    /**
+     * Inflates the gzip member in `compressed` into `payload`.
+     * @return the number of bytes inflated
+     */
+    private int inflate(int length)
+    {
+        int offset = skipGzipHeader(length);
+        inflater.reset();
+        inflater.setInput(compressed, offset, length - offset);
+        int inflated = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflated == payload.length) {
+                    if (payload.length >= MAX_PAYLOAD_BYTES) {
+                        throw new DataException(String.format("Payload is larger than %d bytes", MAX_PAYLOAD_BYTES));
+                    }
+                    payload = Arrays.copyOf(payload, Math.min(payload.length * 2, MAX_PAYLOAD_BYTES));
+                }
+                int n = inflater.inflate(payload, inflated, payload.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataException("Truncated gzip payload");
+                }
+                inflated += n;
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new DataException("Invalid gzip payload: " + ex.getMessage());
+        }
+        // The trailer has the CRC-32 and the size of the payload.
+        int trailer = length - inflater.getRemaining();
+        if (length - trailer < 8) {
+            throw new DataException("Truncated gzip payload");
+        }
+        crc.reset();
+        crc.update(payload, 0, inflated);
+        if ((int) crc.getValue() != readInt(trailer) || inflated != readInt(trailer + 4)) {
+            throw new DataException("Corrupt gzip payload");
+        }
+        return inflated;
+    }
+
+    private int skipGzipHeader(int length)
+    {
+        if (length < 10 || (compressed[0] & 0xff) != 0x1f || (compressed[1] & 0xff) != 0x8b || compressed[2] != 8) {
+            throw new DataException("Message is not gzip-compressed");
+        }
+        int flags = compressed[3] & 0xff;
+        int offset = 10;
+        if ((flags & FEXTRA) != 0) {
+            offset += 2 + ((compressed[offset] & 0xff) | (compressed[offset + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            offset = skipZeroTerminated(offset, length);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            offset = skipZeroTerminated(offset, length);
+        }
+        if ((flags & FHCRC) != 0) {
+            offset += 2;
+        }
+        if (offset >= length) {
+            throw new DataException("Truncated gzip payload");
+        }
+        return offset;
+    }
+
+    private int skipZeroTerminated(int offset, int length)
+    {
+        while (offset < length && compressed[offset] != 0) {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    @Override
+    public void close()
+    {
+        inflater.end();
+    }
+
+    private int readInt(int offset)
+    {
+        return (compressed[offset] & 0xff)
+                | (compressed[offset + 1] & 0xff) << 8
+                | (compressed[offset + 2] & 0xff) << 16
+                | (compressed[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,124 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.protocol.json.SdkStructuredPlainJsonFactory;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+import com.amazonaws.services.logs.model.transform.GetLogEventsResultJsonUnmarshaller;
+import com.amazonaws.transform.JsonUnmarshallerContext;
+import com.amazonaws.transform.JsonUnmarshallerContextImpl;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares allocated bytes per event between decoding a GetLogEvents page with the SDK
+ * unmarshaller into a GetLogEventsResult, and {@link StreamingLogEventsClient}.
+ *
+ * Run with `./gradlew benchmark`.
+ */
+public class BenchmarkLogEventsDecoding
+{
+    private static final int EVENTS_PER_PAGE = 10000;
+    private static final int ITERATIONS = 50;
+
+    private static final JsonFactory factory = new JsonFactory();
+    private static long checksum = 0;
+
+    public static void main(String[] args) throws Exception
+    {
+        byte[] page = newPage();
+        StreamingLogEventsClient client = new StreamingLogEventsClient(
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("dummy", "dummy")),
+                "us-east-1", new ClientConfiguration());
+        LogEventSink sink = new LogEventSink() {
+            @Override
+            public boolean write(long timestamp, long ingestionTime, String message)
+            {
+                checksum += timestamp + message.length();
+                return false;
+            }
+        };
+
+        for (int i = 0; i < ITERATIONS; i++) {  // warm up
+            materialize(page, sink);
+            client.decode(new ByteArrayInputStream(page), sink);
+        }
+
+        long before = allocatedBytes();
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            materialize(page, sink);
+        }
+        report("sdk", allocatedBytes() - before, System.nanoTime() - started);
+
+        before = allocatedBytes();
+        started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            client.decode(new ByteArrayInputStream(page), sink);
+        }
+        report("streaming", allocatedBytes() - before, System.nanoTime() - started);
+        System.out.println("checksum: " + checksum);
+        client.close();
+    }
+
+    /**
+     * Decodes the page as the SDK client does: GetLogEventsResultJsonUnmarshaller over
+     * the parser and scalar unmarshallers of the SDK's JSON protocol.
+     */
+    private static void materialize(byte[] page, LogEventSink sink) throws Exception
+    {
+        GetLogEventsResult result;
+        try (JsonParser parser = SdkStructuredPlainJsonFactory.JSON_FACTORY.createParser(new ByteArrayInputStream(page))) {
+            JsonUnmarshallerContext context = new JsonUnmarshallerContextImpl(parser,
+                    SdkStructuredPlainJsonFactory.JSON_SCALAR_UNMARSHALLERS,
+                    SdkStructuredPlainJsonFactory.JSON_CUSTOM_TYPE_UNMARSHALLERS,
+                    new HttpResponse(null, null));
+            result = GetLogEventsResultJsonUnmarshaller.getInstance().unmarshall(context);
+        }
+        for (OutputLogEvent event : result.getEvents()) {
+            sink.write(event.getTimestamp(), event.getIngestionTime(), event.getMessage());
+        }
+    }
+
+    private static byte[] newPage() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("events");
+            for (int i = 0; i < EVENTS_PER_PAGE; i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("timestamp", 1580000000000L + i);
+                generator.writeStringField("message", "{\"level\":\"INFO\",\"status\":200,\"path\":\"/api/v1/items/" + i + "\"}");
+                generator.writeNumberField("ingestionTime", 1580000000100L + i);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeStringField("nextForwardToken", "f/00000000000000000000000000000000000000000000000000000000");
+            generator.writeStringField("nextBackwardToken", "b/00000000000000000000000000000000000000000000000000000000");
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String name, long bytes, long nanos)
+    {
+        long events = (long) EVENTS_PER_PAGE * ITERATIONS;
+        System.out.println(String.format("%-12s %8.1f bytes/event %8.1f ns/event", name, (double) bytes / events, (double) nanos / events));
+    }
+}
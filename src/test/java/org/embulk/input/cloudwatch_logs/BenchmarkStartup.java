@@ -0,0 +1,133 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.AWSLogsClientBuilder;
+import com.amazonaws.services.logs.model.DescribeLogStreamsRequest;
+import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+import com.google.common.base.Optional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.RecordSampler;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+
+/**
+ * Measures the startup of a small run: building an AWSLogs client, and the time to the
+ * first record and to the last record of a log group of single-page streams, with and
+ * without `prefetch_streams`. API calls are simulated with a fixed latency.
+ *
+ * Run with `./gradlew benchmarkStartup`.
+ */
+public class BenchmarkStartup
+{
+    private static final int LOG_STREAMS = 20;
+    private static final long LATENCY_MILLIS = 50;
+
+    public static void main(String[] args)
+    {
+        for (int i = 0; i < 2; i++) {
+            long started = System.nanoTime();
+            AWSLogs client = AWSLogsClientBuilder.standard()
+                    .withRegion("us-east-1")
+                    .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("dummy", "dummy")))
+                    .build();
+            System.out.println(String.format("%-24s %8.1f ms", i == 0 ? "first client build:" : "second client build:",
+                                             (System.nanoTime() - started) / 1e6));
+            client.shutdown();
+        }
+
+        for (int prefetch : new int[] {0, 0, 4, 8}) {
+            run(prefetch);
+        }
+    }
+
+    private static void run(int prefetch)
+    {
+        PluginTask task = newTask(prefetch);
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, newSimulatedClient());
+        RecordSampler sampler = new RecordSampler(task, false);
+        final long started = System.nanoTime();
+        final long[] firstRecord = new long[] {-1};
+        final int[] records = new int[1];
+        new CloudwatchLogsInputPlugin().fetch(task, drainer, sampler, new StreamMetrics(false), null, (timestamp, ingestionTime, message) -> {
+            if (firstRecord[0] < 0) {
+                firstRecord[0] = System.nanoTime() - started;
+            }
+            records[0]++;
+            return false;
+        });
+        System.out.println(String.format("prefetch_streams %d: first record %6.1f ms, %d records %7.1f ms",
+                                         prefetch, firstRecord[0] / 1e6, records[0], (System.nanoTime() - started) / 1e6));
+    }
+
+    private static PluginTask newTask(int prefetch)
+    {
+        // Optional options are absent and the others have their zero values.
+        PluginTask task = Mockito.mock(CloudWatchLogsPluginTask.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (invocation.getMethod().getReturnType().equals(Optional.class)) {
+                    return Optional.absent();
+                }
+                if (invocation.getMethod().getReturnType().equals(List.class)) {
+                    return Collections.emptyList();
+                }
+                return Mockito.RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+        Mockito.doReturn("benchmark").when(task).getLogGroupName();
+        Mockito.doReturn(true).when(task).getUseLogStreamNamePrefix();
+        Mockito.doReturn(1.0).when(task).getSampleRate();
+        Mockito.doReturn(1).when(task).getCircuitBreakerThreshold();
+        Mockito.doReturn(prefetch).when(task).getPrefetchStreams();
+        return task;
+    }
+
+    private static AWSLogs newSimulatedClient()
+    {
+        AWSLogs client = Mockito.mock(AWSLogs.class);
+        Mockito.when(client.describeLogStreams(Mockito.any(DescribeLogStreamsRequest.class))).thenAnswer(invocation -> {
+            sleep();
+            List<LogStream> logStreams = new ArrayList<>();
+            for (int i = 0; i < LOG_STREAMS; i++) {
+                logStreams.add(new LogStream().withLogStreamName("stream-" + i));
+            }
+            return new DescribeLogStreamsResult().withLogStreams(logStreams);
+        });
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(invocation -> {
+            sleep();
+            GetLogEventsRequest request = (GetLogEventsRequest) invocation.getArguments()[0];
+            List<OutputLogEvent> events = new ArrayList<>();
+            if (request.getNextToken() == null) {
+                events.add(new OutputLogEvent().withTimestamp(1L).withMessage(request.getLogStreamName()));
+            }
+            return new GetLogEventsResult().withEvents(events).withNextForwardToken("end");
+        });
+        return client;
+    }
+
+    private static void sleep()
+    {
+        try {
+            Thread.sleep(LATENCY_MILLIS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFirstPagePrefetcher
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask task;
+    private AWSLogs client;
+
+    @Before
+    public void setUp()
+    {
+        task = runtime.getExec().newConfigSource()
+                .set("log_group_name", "prefetch")
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        client = Mockito.mock(AWSLogs.class);
+    }
+
+    @Test
+    public void fetchStreamsInQueuedOrder() throws InterruptedException
+    {
+        final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(invocation -> {
+            String logStreamName = ((GetLogEventsRequest) invocation.getArguments()[0]).getLogStreamName();
+            requested.add(logStreamName);
+            return page(logStreamName);
+        });
+
+        try (FirstPagePrefetcher prefetcher = new FirstPagePrefetcher(new CloudWatchLogsDrainer(task, client), 1)) {
+            prefetcher.offer("a");
+            prefetcher.offer("b");
+            prefetcher.offer("c");
+            // With a window of one, a stream is fetched only after the one before it is taken.
+            awaitRequests(requested, 1);
+            assertEquals("a", messageOf(prefetcher.take("a")));
+            awaitRequests(requested, 2);
+            assertEquals("b", messageOf(prefetcher.take("b")));
+            awaitRequests(requested, 3);
+            assertEquals("c", messageOf(prefetcher.take("c")));
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), requested);
+    }
+
+    @Test
+    public void returnNullForStreamWhichIsNotQueued()
+    {
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenReturn(page("a"));
+
+        try (FirstPagePrefetcher prefetcher = new FirstPagePrefetcher(new CloudWatchLogsDrainer(task, client), 2)) {
+            prefetcher.offer("a");
+            assertNull(prefetcher.take("b"));
+            assertEquals("a", messageOf(prefetcher.take("a")));
+            // A page is taken only once.
+            assertNull(prefetcher.take("a"));
+        }
+    }
+
+    @Test
+    public void cancelFetchesOnClose() throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(60 * 1000);
+            }
+            catch (InterruptedException ex) {
+                interrupted.countDown();
+                throw ex;
+            }
+            return page("never");
+        });
+
+        FirstPagePrefetcher prefetcher = new FirstPagePrefetcher(new CloudWatchLogsDrainer(task, client), 1);
+        prefetcher.offer("slow");
+        prefetcher.offer("queued");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        prefetcher.close();
+
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        // The queued stream is dropped without a request.
+        Mockito.verify(client, Mockito.times(1)).getLogEvents(Mockito.any(GetLogEventsRequest.class));
+        assertNull(prefetcher.take("queued"));
+    }
+
+    private static void awaitRequests(List<String> requested, int count) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (requested.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give a fetch beyond the window the time to start.
+        Thread.sleep(50);
+        assertEquals(count, requested.size());
+    }
+
+    private static GetLogEventsResult page(String message)
+    {
+        return new GetLogEventsResult()
+                .withEvents(new OutputLogEvent().withTimestamp(0L).withMessage(message))
+                .withNextForwardToken("f/" + message);
+    }
+
+    private static String messageOf(FirstPagePrefetcher.FirstPage firstPage)
+    {
+        return firstPage.getResult().getEvents().get(0).getMessage();
+    }
+}
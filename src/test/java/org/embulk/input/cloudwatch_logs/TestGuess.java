@@ -0,0 +1,123 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.DescribeLogStreamsRequest;
+import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OrderBy;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.junit.Assert.assertEquals;
+
+public class TestGuess
+{
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long JAN_01 = 1577836800000L;  // 2020-01-01 00:00:00 UTC
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private CloudwatchLogsInputPlugin plugin;
+    private AWSLogs client;
+    private List<LogStream> streamsByName;
+    private List<LogStream> recentStreams;
+
+    @Before
+    public void setUp()
+    {
+        client = Mockito.mock(AWSLogs.class);
+        plugin = Mockito.spy(new CloudwatchLogsInputPlugin());
+        Mockito.doReturn(client).when(plugin).newLogsClient(Mockito.any(PluginTask.class));
+        Mockito.when(client.describeLogStreams(Mockito.any(DescribeLogStreamsRequest.class))).thenAnswer(new Answer<DescribeLogStreamsResult>() {
+            @Override
+            public DescribeLogStreamsResult answer(InvocationOnMock invocation)
+            {
+                DescribeLogStreamsRequest request = (DescribeLogStreamsRequest) invocation.getArguments()[0];
+                boolean recent = OrderBy.LastEventTime.toString().equals(request.getOrderBy());
+                return new DescribeLogStreamsResult().withLogStreams(recent ? recentStreams : streamsByName);
+            }
+        });
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(new Answer<GetLogEventsResult>() {
+            @Override
+            public GetLogEventsResult answer(InvocationOnMock invocation)
+            {
+                List<OutputLogEvent> events = new ArrayList<>();
+                events.add(new OutputLogEvent().withTimestamp(JAN_01).withMessage("{\"level\":\"INFO\",\"status\":200}"));
+                return new GetLogEventsResult().withEvents(events).withNextForwardToken("f/1");
+            }
+        });
+    }
+
+    @Test
+    public void sampleStreamsWithLatestEvents()
+    {
+        // Listed by name, the oldest streams come first and have no events left.
+        streamsByName = Arrays.asList(logStream("2019/01/01/[1]old", JAN_01 - 365 * DAY));
+        recentStreams = Arrays.asList(logStream("2020/01/02/[2]new", JAN_01 + DAY),
+                                      logStream("2020/01/01/[2]empty", null));
+
+        ConfigDiff diff = plugin.guess(config());
+
+        assertEquals("json", diff.get(String.class, "message_format"));
+        assertEquals(Arrays.asList("2020/01/02/[2]new"), sampledLogStreamNames());
+    }
+
+    @Test
+    public void skipStreamsOutsideTimeRangeWithPrefix()
+    {
+        streamsByName = Arrays.asList(logStream("2020/01/01/[1]a", JAN_01),
+                                      logStream("2020/01/15/[1]b", JAN_01 + 14 * DAY),
+                                      logStream("2020/01/16/[1]c", null));
+        recentStreams = new ArrayList<>();
+
+        ConfigDiff diff = plugin.guess(config()
+                .set("use_log_stream_name_prefix", true)
+                .set("log_stream_name", "2020/01/")
+                .set("start_time", "2020-01-10 00:00:00"));
+
+        assertEquals("json", diff.get(String.class, "message_format"));
+        assertEquals(Arrays.asList("2020/01/15/[1]b"), sampledLogStreamNames());
+    }
+
+    private ConfigSource config()
+    {
+        return runtime.getExec().newConfigSource()
+                .set("log_group_name", "/aws/lambda/app")
+                .set("region", "us-east-1");
+    }
+
+    private List<String> sampledLogStreamNames()
+    {
+        ArgumentCaptor<GetLogEventsRequest> requests = ArgumentCaptor.forClass(GetLogEventsRequest.class);
+        Mockito.verify(client, Mockito.atLeastOnce()).getLogEvents(requests.capture());
+        List<String> names = new ArrayList<>();
+        for (GetLogEventsRequest request : requests.getAllValues()) {
+            names.add(request.getLogStreamName());
+        }
+        return names;
+    }
+
+    private static LogStream logStream(String name, Long lastEventTimestamp)
+    {
+        return new LogStream().withLogStreamName(name).withLastEventTimestamp(lastEventTimestamp);
+    }
+}
@@ -0,0 +1,60 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestIncrementalWatermark
+{
+    private static final long MINUTE = 60 * 1000;
+    private static final long MARGIN = IncrementalWatermark.VISIBILITY_MARGIN_MILLIS;
+
+    @Test
+    public void coverEventsReadByPreviousRun()
+    {
+        IncrementalWatermark watermark = new IncrementalWatermark(10 * MINUTE, 12 * MINUTE);
+        assertTrue(watermark.covers(9 * MINUTE, 11 * MINUTE));
+        assertTrue(watermark.covers(10 * MINUTE, 12 * MINUTE));
+        // Ingested after the watermark
+        assertFalse(watermark.covers(9 * MINUTE, 12 * MINUTE + 1));
+        // Newer than any event read, e.g. beyond end_time, so it was not read
+        assertFalse(watermark.covers(10 * MINUTE + 1, 11 * MINUTE));
+    }
+
+    @Test
+    public void coverNothingOnFirstRun()
+    {
+        assertFalse(new IncrementalWatermark(null, null).covers(0, 0));
+    }
+
+    @Test
+    public void keepEventsIngestedIntoStreamsReadEarlier()
+    {
+        // Stream A is read at minute 0 and stream Z at minute 10, whose newest event was
+        // ingested at minute 10. An event ingested into A at minute 5 was not read.
+        long fetchStartedAt = 0;
+        Long lastIngestionTime = IncrementalWatermark.nextIngestionTime(null, 10 * MINUTE, fetchStartedAt);
+        assertEquals(Long.valueOf(fetchStartedAt - MARGIN), lastIngestionTime);
+
+        IncrementalWatermark watermark = new IncrementalWatermark(10 * MINUTE, lastIngestionTime);
+        assertFalse(watermark.covers(5 * MINUTE, 5 * MINUTE));
+        // Ingested before A was read, so it was read with A
+        assertTrue(watermark.covers(-5 * MINUTE, fetchStartedAt - MARGIN));
+    }
+
+    @Test
+    public void nextIngestionTime()
+    {
+        long started = 60 * MINUTE;
+        // The newest ingestion time read when it is before the fetch started
+        assertEquals(Long.valueOf(30 * MINUTE), IncrementalWatermark.nextIngestionTime(20 * MINUTE, 30 * MINUTE, started));
+        // The previous watermark when nothing newer is read
+        assertEquals(Long.valueOf(20 * MINUTE), IncrementalWatermark.nextIngestionTime(20 * MINUTE, null, started));
+        // Capped at the fetch start less the margin
+        assertEquals(Long.valueOf(started - MARGIN), IncrementalWatermark.nextIngestionTime(20 * MINUTE, 70 * MINUTE, started));
+        assertNull(IncrementalWatermark.nextIngestionTime(null, null, started));
+    }
+}
@@ -0,0 +1,108 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Types;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TestJsonMessageProjector
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private Schema schema;
+    private JsonMessageProjector projector;
+    private PageBuilder pageBuilder;
+
+    @Before
+    public void setUp()
+    {
+        List<Object> columns = new ArrayList<>();
+        columns.add(runtime.getExec().newConfigSource().set("name", "level").set("type", "string"));
+        columns.add(runtime.getExec().newConfigSource().set("name", "status").set("type", "long"));
+        columns.add(runtime.getExec().newConfigSource().set("name", "time").set("type", "timestamp"));
+        columns.add(runtime.getExec().newConfigSource().set("name", "detail").set("type", "json"));
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("log_group_name", "dummy")
+                .set("message_format", "json")
+                .set("columns", columns);
+        PluginTask task = config.loadConfig(CloudWatchLogsPluginTask.class);
+        schema = new CloudwatchLogsInputPlugin().buildSchema(task);
+        projector = new JsonMessageProjector(schema, task.getColumns(),
+                                             AbstractCloudwatchLogsInputPlugin.DEFAULT_DATE_FORMAT);
+        pageBuilder = Mockito.mock(PageBuilder.class);
+    }
+
+    @Test
+    public void projectConfiguredFields()
+    {
+        String message = "{\"skipped\":{\"a\":[1,2,{\"b\":3}]},\"level\":\"INFO\",\"status\":\"200\","
+                + "\"time\":1580000000000,\"detail\":{\"user\":\"alice\",\"ids\":[1,2]}}";
+        assertTrue(projector.parse(message, pageBuilder));
+
+        verify(pageBuilder).setString(column("level"), "INFO");
+        verify(pageBuilder).setLong(column("status"), 200L);
+        verify(pageBuilder).setTimestamp(column("time"), Timestamp.ofEpochMilli(1580000000000L));
+        verify(pageBuilder).setJson(column("detail"), ValueFactory.newMap(
+                ValueFactory.newString("user"), ValueFactory.newString("alice"),
+                ValueFactory.newString("ids"), ValueFactory.newArray(ValueFactory.newInteger(1), ValueFactory.newInteger(2))));
+        verify(pageBuilder, never()).setNull(Mockito.any(Column.class));
+    }
+
+    @Test
+    public void missingFieldsAreNull()
+    {
+        assertTrue(projector.parse("{\"level\":\"WARN\",\"time\":\"2020-01-18 00:00:00\"}", pageBuilder));
+
+        verify(pageBuilder).setString(column("level"), "WARN");
+        verify(pageBuilder).setTimestamp(column("time"), Timestamp.ofEpochMilli(1579305600000L));
+        verify(pageBuilder).setNull(column("status"));
+        verify(pageBuilder).setNull(column("detail"));
+    }
+
+    @Test
+    public void integersOutOfRangeOfLong()
+    {
+        String message = "{\"status\":18446744073709551615,\"time\":-9223372036854775809,"
+                + "\"detail\":[18446744073709551615,100000000000000000000]}";
+        assertTrue(projector.parse(message, pageBuilder));
+
+        verify(pageBuilder).setNull(column("status"));
+        verify(pageBuilder).setNull(column("time"));
+        verify(pageBuilder).setJson(column("detail"), ValueFactory.newArray(
+                ValueFactory.newInteger(new BigInteger("18446744073709551615")),
+                ValueFactory.newFloat(1e20)));
+    }
+
+    @Test
+    public void rejectNonObjectMessages()
+    {
+        assertFalse(projector.parse("plain text message", pageBuilder));
+        assertFalse(projector.parse("[1, 2, 3]", pageBuilder));
+    }
+
+    private Column column(String name)
+    {
+        return schema.lookupColumn(name);
+    }
+}
@@ -0,0 +1,97 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLoadPlanner
+{
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void planWithinTimeRange()
+    {
+        LoadPlanner planner = new LoadPlanner(1000L, 2000L, 10.0, LoadPlanner.GET_LOG_EVENTS_QUOTA, 4);
+        LoadPlanner.Plan plan = planner.plan(Arrays.asList(
+                logStream("old", 0L, 500L, MB),             // pruned
+                logStream("half", 0L, 2000L, 4 * MB),       // 2 MB in range
+                logStream("inside", 1200L, 1800L, 3 * MB),  // 3 MB in range
+                logStream("unknown", 1500L, 1600L, 0L),     // storedBytes is not reported
+                logStream("new", 2000L, 3000L, MB)),        // pruned
+                1, 0L, null);
+
+        assertEquals(5, plan.listedStreams);
+        assertEquals(2, plan.prunedStreams);
+        assertEquals(1, plan.unknownSizeStreams);
+        assertEquals(5 * MB, plan.estimatedBytes);
+        assertEquals((2 + 1) + (3 + 1) + 2, plan.estimatedCalls);
+        assertEquals(1, plan.parallelism);
+        // 1 thread completes 5 calls per second, below requests_per_second
+        assertEquals(9 / 5.0, plan.estimatedSeconds, 0.001);
+    }
+
+    @Test
+    public void spreadLogGroupBytesOverStreams()
+    {
+        LoadPlanner planner = new LoadPlanner(1000L, 2000L, 10.0, LoadPlanner.GET_LOG_EVENTS_QUOTA, 4);
+        // 10000 ms of events in the group: 10 MB, or 1 MB per 1000 ms
+        LoadPlanner.Plan plan = planner.plan(Arrays.asList(
+                logStream("old", 0L, 999L, 0L),             // pruned, but holds 1 MB of the group
+                logStream("long", 0L, 7999L, 0L),           // 1000 ms in range
+                logStream("inside", 1000L, 1499L, 0L),      // 500 ms in range
+                logStream("sized", 1500L, 1999L, 3 * MB),   // storedBytes is reported
+                logStream("empty", null, null, 0L)),        // no event time
+                1, 0L, 10 * MB);
+
+        assertEquals(1, plan.prunedStreams);
+        assertEquals(2, plan.groupSizedStreams);
+        assertEquals(1, plan.unknownSizeStreams);
+        assertEquals(MB + MB / 2 + 3 * MB, plan.estimatedBytes, 1);
+        assertEquals((1 + 1) + (1 + 1) + (3 + 1) + 2, plan.estimatedCalls);
+    }
+
+    @Test
+    public void fallBackToUnknownWithoutLogGroupBytes()
+    {
+        LoadPlanner planner = new LoadPlanner(null, null, 10.0, LoadPlanner.GET_LOG_EVENTS_QUOTA, 4);
+        LoadPlanner.Plan plan = planner.plan(Arrays.asList(logStream("a", 0L, 999L, 0L)), 1, 0L, 0L);
+
+        assertEquals(0, plan.groupSizedStreams);
+        assertEquals(1, plan.unknownSizeStreams);
+        assertEquals(2, plan.estimatedCalls);
+    }
+
+    @Test
+    public void limitEachTaskByRequestsPerSecond()
+    {
+        // 8 tasks, 4 of them at a time
+        List<LogStream> logStreams = Arrays.asList(logStream("a", 0L, 999L, 23 * MB));
+        LoadPlanner.Plan plan = new LoadPlanner(null, null, 2.0, LoadPlanner.GET_LOG_EVENTS_QUOTA, 4)
+                .plan(logStreams, 8, 0L, null);
+        assertEquals(24, plan.estimatedCalls);
+        assertEquals(4, plan.parallelism);
+        // 4 tasks call 2 times per second each
+        assertEquals(24 / 8.0, plan.estimatedSeconds, 0.001);
+
+        // 4 tasks of 5 calls per second each are not limited by the quota of 25
+        plan = new LoadPlanner(null, null, Double.POSITIVE_INFINITY, LoadPlanner.GET_LOG_EVENTS_QUOTA, 4)
+                .plan(logStreams, 8, 0L, null);
+        assertEquals(24 / 20.0, plan.estimatedSeconds, 0.001);
+
+        // 8 tasks at a time are limited by the quota
+        plan = new LoadPlanner(null, null, 10.0, LoadPlanner.GET_LOG_EVENTS_QUOTA, 8)
+                .plan(logStreams, 8, 0L, null);
+        assertEquals(24 / 25.0, plan.estimatedSeconds, 0.001);
+    }
+
+    private static LogStream logStream(String name, Long first, Long last, long storedBytes)
+    {
+        return new LogStream().withLogStreamName(name).withFirstEventTimestamp(first)
+                .withLastEventTimestamp(last).withStoredBytes(storedBytes);
+    }
+}
@@ -0,0 +1,137 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.PageBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.RecordSampler;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLogEventSpool
+{
+    private static final int SEGMENT_BYTES = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void replayEventsAcrossSegments() throws Exception
+    {
+        final LogEventSpool spool = new LogEventSpool(folder.getRoot().toPath(), SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                spool.write(i, i + 1000, "message-" + i + "-\u00e9");
+            }
+            spool.finish();
+        });
+        writer.start();
+
+        final List<String> messages = new ArrayList<>();
+        spool.replay((timestamp, ingestionTime, message) -> {
+            assertEquals(timestamp + 1000, ingestionTime);
+            messages.add(message);
+            return false;
+        });
+        writer.join();
+        spool.close();
+
+        assertEquals(100, messages.size());
+        assertEquals("message-0-\u00e9", messages.get(0));
+        assertEquals("message-99-\u00e9", messages.get(99));
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void closeStopsBlockedWriter() throws Exception
+    {
+        final LogEventSpool spool = new LogEventSpool(folder.getRoot().toPath(), SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        final boolean[] stopped = new boolean[1];
+        Thread writer = new Thread(() -> {
+            // Nothing is replayed, so the writer blocks when the spool is full.
+            while (!spool.write(0, 0, "message")) {
+            }
+            stopped[0] = true;
+        });
+        writer.start();
+        Thread.sleep(100);
+        spool.close();
+        writer.join(10000);
+
+        assertTrue(stopped[0]);
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(0, files.length);
+    }
+
+    @Test(timeout = 30000)
+    public void stopFetcherWaitingForRetry() throws IOException
+    {
+        PluginTask task = runtime.getExec().newConfigSource()
+                .set("log_group_name", "dummy")
+                .set("log_stream_name", "a")
+                .set("max_records", 1)
+                .set("spool_dir", folder.getRoot().getPath())
+                .set("initial_retry_wait_millis", 60000)
+                .set("max_retry_wait_millis", 60000)
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setStatusCode(400);
+        throttled.setErrorCode("ThrottlingException");
+        AWSLogs client = Mockito.mock(AWSLogs.class);
+        // The second page is throttled, and the fetcher waits a minute for its retry.
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class)))
+                .thenReturn(new GetLogEventsResult()
+                        .withEvents(new OutputLogEvent().withTimestamp(0L).withMessage("message"))
+                        .withNextForwardToken("f/1"))
+                .thenThrow(throttled);
+        CloudwatchLogsInputPlugin plugin = new CloudwatchLogsInputPlugin();
+        RecordSampler sampler = new RecordSampler(task, false);
+        LogEventWriter writer = new LogEventWriter(task, plugin.buildSchema(task), Mockito.mock(PageBuilder.class), sampler);
+
+        long started = System.nanoTime();
+        plugin.fetchThroughSpool(task, new CloudWatchLogsDrainer(task, client), sampler, new StreamMetrics(false), null, writer);
+
+        assertEquals(1, sampler.getRecords());
+        assertTrue(System.nanoTime() - started < 5L * 1000 * 1000 * 1000);
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void replayRethrowsFailure() throws IOException
+    {
+        LogEventSpool spool = new LogEventSpool(folder.getRoot().toPath(), SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        spool.write(0, 0, "message");
+        spool.fail(new IllegalStateException("fetch failed"));
+        try {
+            spool.replay((timestamp, ingestionTime, message) -> false);
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("fetch failed", ex.getMessage());
+        }
+        finally {
+            spool.close();
+        }
+    }
+}
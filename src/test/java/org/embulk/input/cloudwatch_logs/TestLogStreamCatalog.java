@@ -0,0 +1,49 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogStreamCatalog
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("catalog.bin");
+        assertNull(LogStreamCatalog.load(path));
+
+        LogStreamCatalog catalog = new LogStreamCatalog("group", "app-", 1000L);
+        catalog.put(new LogStream().withLogStreamName("app-b").withFirstEventTimestamp(10L)
+                .withLastEventTimestamp(500L).withStoredBytes(1024L));
+        catalog.put(new LogStream().withLogStreamName("app-a"));
+        catalog.save(path);
+
+        LogStreamCatalog loaded = LogStreamCatalog.load(path);
+        assertEquals(500L, loaded.getWatermark());
+        List<LogStream> logStreams = loaded.getLogStreams();
+        assertEquals(2, logStreams.size());
+        assertEquals("app-a", logStreams.get(0).getLogStreamName());
+        assertNull(logStreams.get(0).getLastEventTimestamp());
+        assertEquals("app-b", logStreams.get(1).getLogStreamName());
+        assertEquals(Long.valueOf(10L), logStreams.get(1).getFirstEventTimestamp());
+        assertEquals(Long.valueOf(1024L), logStreams.get(1).getStoredBytes());
+
+        assertTrue(loaded.isFresh("group", "app-", 2000L, 5000L));
+        assertFalse(loaded.isFresh("group", "app-", 7000L, 5000L));
+        assertFalse(loaded.isFresh("group", "web-", 2000L, 5000L));
+    }
+}
@@ -0,0 +1,76 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigDiff;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestMessageFormatGuesser
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void guessJson()
+    {
+        ConfigDiff diff = new MessageFormatGuesser().guess(Arrays.asList(
+                "{\"level\":\"INFO\",\"status\":200,\"latency\":1,\"ok\":true,\"req\":{\"path\":\"/\"}}",
+                "{\"level\":\"WARN\",\"status\":500,\"latency\":1.5,\"ok\":false,\"req\":{\"path\":\"/a\"}}"));
+
+        assertEquals("json", diff.get(String.class, "message_format"));
+        assertColumns(diff, "level", "string", "status", "long", "latency", "double", "ok", "boolean", "req", "json");
+    }
+
+    @Test
+    public void guessLogfmt()
+    {
+        ConfigDiff diff = new MessageFormatGuesser().guess(Arrays.asList(
+                "level=info msg=\"request done\" status=200",
+                "level=warn msg=\"slow request\" status=200 elapsed=2.5"));
+
+        assertEquals("logfmt", diff.get(String.class, "message_format"));
+        assertColumns(diff, "level", "string", "msg", "string", "status", "long", "elapsed", "double");
+    }
+
+    @Test
+    public void guessLambdaReport()
+    {
+        ConfigDiff diff = new MessageFormatGuesser().guess(Arrays.asList(
+                "START RequestId: 3f5b2d8e-1234 Version: $LATEST",
+                "END RequestId: 3f5b2d8e-1234",
+                "REPORT RequestId: 3f5b2d8e-1234\tDuration: 2.13 ms\tBilled Duration: 3 ms\tMemory Size: 128 MB\tMax Memory Used: 72 MB\t"));
+
+        assertEquals("lambda_report", diff.get(String.class, "message_format"));
+        assertEquals("^REPORT ", diff.get(String.class, "include_pattern"));
+        assertColumns(diff, "request_id", "string", "duration", "double", "billed_duration", "long",
+                      "memory_size", "long", "max_memory_used", "long");
+    }
+
+    @Test
+    public void plainTextIsNotGuessed()
+    {
+        ConfigDiff diff = new MessageFormatGuesser().guess(Arrays.asList(
+                "Started server on port 8080",
+                "Connection to db=primary lost"));
+
+        assertFalse(diff.has("message_format"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertColumns(ConfigDiff diff, String... expected)
+    {
+        List<java.util.Map<String, String>> columns = diff.get(List.class, "columns");
+        assertEquals(expected.length / 2, columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            assertEquals(expected[i * 2], columns.get(i).get("name"));
+            assertEquals(expected[i * 2 + 1], columns.get(i).get("type"));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.time.Timestamp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.RecordSampler;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.mockito.Mockito.times;
+
+public class TestOrderedLogStreamMerger
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private PluginTask task;
+    private AWSLogs client;
+    private PageBuilder pageBuilder;
+    private LogEventWriter writer;
+    // stream name -> pages of event timestamps
+    private Map<String, List<long[]>> pages;
+
+    @Before
+    public void setUp()
+    {
+        task = runtime.getExec().newConfigSource()
+                .set("log_group_name", "dummy")
+                .set("use_log_stream_name_prefix", true)
+                .set("ordered", true)
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        pages = new HashMap<>();
+        client = Mockito.mock(AWSLogs.class);
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(new Answer<GetLogEventsResult>() {
+            @Override
+            public GetLogEventsResult answer(InvocationOnMock invocation)
+            {
+                GetLogEventsRequest request = (GetLogEventsRequest) invocation.getArguments()[0];
+                List<long[]> streamPages = pages.get(request.getLogStreamName());
+                int page = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+                List<OutputLogEvent> events = new ArrayList<>();
+                if (page < streamPages.size()) {
+                    for (long timestamp : streamPages.get(page)) {
+                        events.add(new OutputLogEvent().withTimestamp(timestamp).withMessage(request.getLogStreamName()));
+                    }
+                }
+                String nextToken = String.valueOf(Math.min(page + 1, streamPages.size()));
+                return new GetLogEventsResult().withEvents(events).withNextForwardToken(nextToken);
+            }
+        });
+        pageBuilder = Mockito.mock(PageBuilder.class);
+        writer = new LogEventWriter(task, new CloudwatchLogsInputPlugin().buildSchema(task), pageBuilder,
+                                    new RecordSampler(task, false));
+    }
+
+    @Test
+    public void mergeInTimestampOrder()
+    {
+        pages.put("a", Arrays.asList(new long[] {1, 4}, new long[] {7}));
+        pages.put("b", Arrays.asList(new long[] {2, 3}, new long[] {}, new long[] {8, 9}));
+        pages.put("c", Arrays.<long[]>asList(new long[] {5, 6}));
+
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
+        new OrderedLogStreamMerger(drainer, 3, false).merge(Arrays.asList(
+                logStream("c", 5), logStream("b", 2), logStream("a", 1)), writer);
+
+        InOrder inOrder = Mockito.inOrder(pageBuilder);
+        for (long timestamp = 1; timestamp <= 9; timestamp++) {
+            inOrder.verify(pageBuilder).setTimestamp(0, Timestamp.ofEpochMilli(timestamp));
+        }
+        Mockito.verify(pageBuilder, times(9)).addRecord();
+    }
+
+    @Test(expected = DataException.class)
+    public void failWhenTooManyStreamsOverlap()
+    {
+        pages.put("a", Arrays.<long[]>asList(new long[] {1, 4}));
+        pages.put("b", Arrays.<long[]>asList(new long[] {2, 3}));
+
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
+        new OrderedLogStreamMerger(drainer, 1, false).merge(Arrays.asList(
+                logStream("a", 1), logStream("b", 2)), writer);
+    }
+
+    private static LogStream logStream(String name, long firstEventTimestamp)
+    {
+        return new LogStream().withLogStreamName(name).withFirstEventTimestamp(firstEventTimestamp);
+    }
+}
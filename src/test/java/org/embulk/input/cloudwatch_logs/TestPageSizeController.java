@@ -0,0 +1,109 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertEquals;
+
+public class TestPageSizeController
+{
+    private static final long MS = 1000 * 1000;
+    private static final long LARGE_HEAP = 1L << 40;
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void growWhileFullPagesAreFast()
+    {
+        PageSizeController controller = new PageSizeController(1000, () -> LARGE_HEAP);
+        assertEquals(PageSizeController.INITIAL_LIMIT, controller.getLimit());
+        controller.observe(100 * MS, 100, 100 * 100);
+        assertEquals(200, controller.getLimit());
+        for (int i = 0; i < 10; i++) {
+            controller.observe(100 * MS, controller.getLimit(), controller.getLimit() * 100L);
+        }
+        assertEquals(PageSizeController.MAX_LIMIT, controller.getLimit());
+    }
+
+    @Test
+    public void keepLimitForPartialPages()
+    {
+        PageSizeController controller = new PageSizeController(1000, () -> LARGE_HEAP);
+        controller.observe(100 * MS, 30, 3000);
+        assertEquals(PageSizeController.INITIAL_LIMIT, controller.getLimit());
+    }
+
+    @Test
+    public void shrinkWhenSlow()
+    {
+        PageSizeController controller = new PageSizeController(1000, () -> LARGE_HEAP);
+        controller.observe(1500 * MS, 100, 10000);
+        assertEquals(50, controller.getLimit());
+    }
+
+    @Test
+    public void limitByAvailableHeap()
+    {
+        // 32 MB free heap allows 1 MB per page, which is 512 events of 1024 chars
+        PageSizeController controller = new PageSizeController(1000, () -> 32L * 1024 * 1024);
+        controller.observe(100 * MS, 100, 100 * 1024);
+        assertEquals(200, controller.getLimit());
+        controller.observe(100 * MS, 200, 200 * 1024);
+        controller.observe(100 * MS, 400, 400 * 1024);
+        assertEquals(512, controller.getLimit());
+    }
+
+    @Test
+    public void ignoreWaitsOfThrottledRetries()
+    {
+        // Each page waits for a retry and for the rate limit far longer than the target latency.
+        PluginTask task = runtime.getExec().newConfigSource()
+                .set("log_group_name", "throttled")
+                .set("adaptive_page_size", true)
+                .set("target_page_latency_millis", 200)
+                .set("initial_retry_wait_millis", 400)
+                .set("max_retry_wait_millis", 400)
+                .set("requests_per_second", 2.0)
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setStatusCode(400);
+        throttled.setErrorCode("ThrottlingException");
+        AWSLogs client = Mockito.mock(AWSLogs.class);
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class)))
+                .thenThrow(throttled)
+                .thenReturn(fullPage(100))
+                .thenThrow(throttled)
+                .thenReturn(fullPage(200));
+
+        CloudWatchLogsDrainer drainer = new CloudWatchLogsDrainer(task, client);
+        PageSizeController pageSize = drainer.newPageSizeController();
+        drainer.getEvents("stream", null, pageSize);
+        assertEquals(200, pageSize.getLimit());
+        drainer.getEvents("stream", "f/1", pageSize);
+        assertEquals(400, pageSize.getLimit());
+    }
+
+    private static GetLogEventsResult fullPage(int events)
+    {
+        List<OutputLogEvent> page = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            page.add(new OutputLogEvent().withTimestamp((long) i).withMessage("event"));
+        }
+        return new GetLogEventsResult().withEvents(page).withNextForwardToken("f/" + events);
+    }
+}
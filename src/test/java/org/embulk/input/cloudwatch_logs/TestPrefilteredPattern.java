@@ -0,0 +1,71 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPrefilteredPattern
+{
+    @Test
+    public void findRequiredLiteral()
+    {
+        assertEquals("ERROR ", PrefilteredPattern.requiredLiteral("ERROR (?<code>\\d+)"));
+        assertEquals("[ERROR] x", PrefilteredPattern.requiredLiteral("\\[ERROR\\] x"));
+        assertEquals("bar", PrefilteredPattern.requiredLiteral("foo?bar"));
+        assertEquals("hell", PrefilteredPattern.requiredLiteral("[abc]hello{2}"));
+        assertNull(PrefilteredPattern.requiredLiteral("ERROR|WARN"));
+        assertNull(PrefilteredPattern.requiredLiteral("(?i)error"));
+        assertNull(PrefilteredPattern.requiredLiteral("\\d+"));
+    }
+
+    @Test
+    public void skipQuantifierBounds()
+    {
+        assertEquals("-", PrefilteredPattern.requiredLiteral("\\d{4}-\\d{2}"));
+        assertNull(PrefilteredPattern.requiredLiteral("x{3}"));
+        assertEquals("abc", PrefilteredPattern.requiredLiteral("x{2,3}abc"));
+        assertEquals("hell", PrefilteredPattern.requiredLiteral("hello{2}"));
+        assertEquals("REPORT ", PrefilteredPattern.requiredLiteral("^REPORT "));
+
+        PrefilteredPattern date = PrefilteredPattern.compile("\\d{4}-\\d{2}");
+        assertTrue(date.find("2023-01"));
+        assertTrue(PrefilteredPattern.compile("x{3}").find("xxx"));
+        assertTrue(PrefilteredPattern.compile("%{TIMESTAMP_ISO8601:time} %{LOGLEVEL:level}").find("2023-01-02T03:04:05Z INFO started"));
+    }
+
+    @Test
+    public void captureGrokFields()
+    {
+        PrefilteredPattern pattern = PrefilteredPattern.compile("%{IP:client} - GET %{URIPATHPARAM:request_path} %{INT:status}");
+        assertEquals(" - GET ", pattern.getLiteral());
+        assertTrue(pattern.find("10.0.0.1 - GET /index.html?a=1 200"));
+        assertEquals("10.0.0.1", pattern.group("client"));
+        assertEquals("/index.html?a=1", pattern.group("request_path"));
+        assertEquals("200", pattern.group("status"));
+        assertFalse(pattern.find("10.0.0.1 - POST /index.html 200"));
+    }
+
+    @Test
+    public void captureNamedGroups()
+    {
+        PrefilteredPattern pattern = PrefilteredPattern.compile("status=(?<status>\\d+)");
+        assertTrue(pattern.find("method=GET status=404"));
+        assertEquals("404", pattern.group("status"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectUnknownGrokPattern()
+    {
+        PrefilteredPattern.compile("%{NO_SUCH_PATTERN:x}");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectInvalidRegex()
+    {
+        PrefilteredPattern.compile("(unclosed");
+    }
+}
@@ -0,0 +1,167 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.DescribeLogStreamsRequest;
+import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.GetLogEventsRequest;
+import com.amazonaws.services.logs.model.GetLogEventsResult;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.OutputLogEvent;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.InputPlugin;
+import org.embulk.spi.PageBuilder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.RecordSampler;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.times;
+
+public class TestRecordSampler
+{
+    // Each stream has 3 pages of 2 events, and each listing page has 2 streams.
+    private static final int LOG_STREAMS = 10;
+    private static final int PAGES = 3;
+    private static final int EVENTS_PER_PAGE = 2;
+    private static final int STREAMS_PER_LISTING = 2;
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private CloudwatchLogsInputPlugin plugin;
+    private AWSLogs client;
+    private PageBuilder pageBuilder;
+
+    @Before
+    public void setUp()
+    {
+        plugin = new CloudwatchLogsInputPlugin();
+        client = Mockito.mock(AWSLogs.class);
+        Mockito.when(client.describeLogStreams(Mockito.any(DescribeLogStreamsRequest.class))).thenAnswer(new Answer<DescribeLogStreamsResult>() {
+            @Override
+            public DescribeLogStreamsResult answer(InvocationOnMock invocation)
+            {
+                DescribeLogStreamsRequest request = (DescribeLogStreamsRequest) invocation.getArguments()[0];
+                int first = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+                List<LogStream> logStreams = new ArrayList<>();
+                for (int i = first; i < first + STREAMS_PER_LISTING; i++) {
+                    logStreams.add(new LogStream().withLogStreamName("stream-" + i));
+                }
+                int next = first + STREAMS_PER_LISTING;
+                return new DescribeLogStreamsResult().withLogStreams(logStreams)
+                        .withNextToken(next < LOG_STREAMS ? String.valueOf(next) : null);
+            }
+        });
+        // The forward token of the last page is returned again at the end of the stream.
+        Mockito.when(client.getLogEvents(Mockito.any(GetLogEventsRequest.class))).thenAnswer(new Answer<GetLogEventsResult>() {
+            @Override
+            public GetLogEventsResult answer(InvocationOnMock invocation)
+            {
+                GetLogEventsRequest request = (GetLogEventsRequest) invocation.getArguments()[0];
+                int page = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+                List<OutputLogEvent> events = new ArrayList<>();
+                if (page < PAGES) {
+                    for (int i = 0; i < EVENTS_PER_PAGE; i++) {
+                        events.add(new OutputLogEvent().withTimestamp((long) page).withMessage(request.getLogStreamName()));
+                    }
+                }
+                String nextToken = String.valueOf(Math.min(page + 1, PAGES));
+                return new GetLogEventsResult().withEvents(events).withNextForwardToken(nextToken);
+            }
+        });
+        pageBuilder = Mockito.mock(PageBuilder.class);
+    }
+
+    @Test
+    public void stopListingAndPagingAtMaxRecords()
+    {
+        // 7 records are the 3 pages of stream-0 and the first page of stream-1.
+        PluginTask task = config().set("max_records", 7).loadConfig(CloudWatchLogsPluginTask.class);
+        RecordSampler sampler = fetch(task, false);
+
+        assertEquals(7, sampler.getRecords());
+        Mockito.verify(client, times(1)).describeLogStreams(Mockito.any(DescribeLogStreamsRequest.class));
+        assertEquals(Arrays.asList("stream-0/null", "stream-0/1", "stream-0/2", "stream-0/3", "stream-1/null"),
+                     requestedPages());
+    }
+
+    @Test
+    public void readFirstPagesOfPreviewStreams()
+    {
+        PluginTask task = config().loadConfig(CloudWatchLogsPluginTask.class);
+        RecordSampler sampler = fetch(task, true);
+
+        assertEquals(3 * EVENTS_PER_PAGE, sampler.getRecords());
+        Mockito.verify(client, times(2)).describeLogStreams(Mockito.any(DescribeLogStreamsRequest.class));
+        assertEquals(Arrays.asList("stream-0/null", "stream-1/null", "stream-2/null"), requestedPages());
+    }
+
+    @Test
+    public void endStreamWhenForwardTokenRepeats()
+    {
+        PluginTask task = config().set("use_log_stream_name_prefix", false)
+                .set("log_stream_name", "stream-0")
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        RecordSampler sampler = fetch(task, false);
+
+        assertEquals(PAGES * EVENTS_PER_PAGE, sampler.getRecords());
+        // The 4th request returns no events and the token of its request.
+        assertEquals(Arrays.asList("stream-0/null", "stream-0/1", "stream-0/2", "stream-0/3"), requestedPages());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectZeroSampleRate()
+    {
+        plugin.transaction(config().set("sample_rate", 0.0), Mockito.mock(InputPlugin.Control.class));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void rejectSampleRateAboveOne()
+    {
+        plugin.transaction(config().set("sample_rate", 1.5), Mockito.mock(InputPlugin.Control.class));
+    }
+
+    private ConfigSource config()
+    {
+        // Streams are read one by one, so that the requests are made in order.
+        return runtime.getExec().newConfigSource()
+                .set("log_group_name", "dummy")
+                .set("use_log_stream_name_prefix", true)
+                .set("prefetch_streams", 0);
+    }
+
+    private RecordSampler fetch(PluginTask task, boolean preview)
+    {
+        RecordSampler sampler = new RecordSampler(task, preview);
+        LogEventWriter writer = new LogEventWriter(task, plugin.buildSchema(task), pageBuilder, sampler);
+        plugin.fetch(task, new CloudWatchLogsDrainer(task, client), sampler, new StreamMetrics(false), null, writer);
+        return sampler;
+    }
+
+    private List<String> requestedPages()
+    {
+        ArgumentCaptor<GetLogEventsRequest> requests = ArgumentCaptor.forClass(GetLogEventsRequest.class);
+        Mockito.verify(client, Mockito.atLeastOnce()).getLogEvents(requests.capture());
+        List<String> pages = new ArrayList<>();
+        for (GetLogEventsRequest request : requests.getAllValues()) {
+            pages.add(request.getLogStreamName() + "/" + request.getNextToken());
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,127 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.AmazonServiceException;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestRequestRetrier
+{
+    @Test
+    public void retryServerErrors()
+    {
+        RequestRetrier retrier = new RequestRetrier(3, 10, 1, 2, new CircuitBreaker(100, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        String result = retrier.call("test", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw serviceException(503, "ServiceUnavailableException");
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void retryThrottling()
+    {
+        RequestRetrier retrier = new RequestRetrier(3, 10, 1, 2, new CircuitBreaker(100, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        retrier.call("test", () -> {
+            if (calls.incrementAndGet() < 2) {
+                throw serviceException(400, "ThrottlingException");
+            }
+            return "ok";
+        });
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void reportRetriesToTrace()
+    {
+        RequestRetrier retrier = new RequestRetrier(3, 10, 1, 2, new CircuitBreaker(100, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger throttled = new AtomicInteger();
+        FlightRecorderEvents.ApiCallTrace trace = new FlightRecorderEvents.ApiCallTrace() {
+            @Override
+            public void retried(boolean wasThrottled)
+            {
+                if (wasThrottled) {
+                    throttled.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void end(int events, long messageChars)
+            {
+            }
+
+            @Override
+            public void fail(String errorCode)
+            {
+            }
+        };
+        retrier.call("test", trace, () -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                throw serviceException(400, "ThrottlingException");
+            }
+            if (call == 2) {
+                throw serviceException(503, "ServiceUnavailableException");
+            }
+            return "ok";
+        });
+        assertEquals(3, calls.get());
+        assertEquals(1, throttled.get());
+    }
+
+    @Test
+    public void doNotRetryClientErrors()
+    {
+        RequestRetrier retrier = new RequestRetrier(3, 10, 1, 2, new CircuitBreaker(100, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            retrier.call("test", () -> {
+                calls.incrementAndGet();
+                throw serviceException(400, "ResourceNotFoundException");
+            });
+            fail();
+        }
+        catch (AmazonServiceException ex) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void stopWhenRetryBudgetIsExhausted()
+    {
+        RequestRetrier retrier = new RequestRetrier(3, 4, 1, 2, new CircuitBreaker(100, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            try {
+                retrier.call("test", () -> {
+                    calls.incrementAndGet();
+                    throw serviceException(500, "InternalFailure");
+                });
+                fail();
+            }
+            catch (AmazonServiceException ex) {
+                // expected
+            }
+        }
+        // 1 + 3 retries, then 1 + 1 retry left in the budget
+        assertEquals(6, calls.get());
+    }
+
+    private static AmazonServiceException serviceException(int statusCode, String errorCode)
+    {
+        AmazonServiceException ex = new AmazonServiceException(errorCode);
+        ex.setStatusCode(statusCode);
+        ex.setErrorCode(errorCode);
+        return ex;
+    }
+}
@@ -0,0 +1,76 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreamMetrics
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reportNewestEventAndLag()
+    {
+        StreamMetrics metrics = new StreamMetrics(true);
+        metrics.listed(new LogStream().withLogStreamName("a").withLastIngestionTime(5000L));
+        LogEventSink sink = metrics.track("a", (timestamp, ingestionTime, message) -> false);
+        sink.write(2000, 3000, "first");
+        sink.write(1000, 3500, "late");
+        metrics.observe("b", 4000, 4100);
+
+        List<Map<String, Object>> report = metrics.toReport(10000, "us-east-1", null);
+        assertEquals(2, report.size());
+        Map<String, Object> a = report.get(0);
+        assertEquals("a", a.get("log_stream_name"));
+        assertEquals("us-east-1", a.get("region"));
+        assertFalse(a.containsKey("account"));
+        assertEquals(2000L, a.get("last_event_time"));
+        assertEquals(3500L, a.get("last_ingestion_time"));
+        assertEquals(1500L, a.get("lag_millis"));
+        assertEquals(8000L, a.get("age_millis"));
+        Map<String, Object> b = report.get(1);
+        assertNull(b.get("listed_last_ingestion_time"));
+        assertNull(b.get("lag_millis"));
+    }
+
+    @Test
+    public void passSinkThroughWhenDisabled()
+    {
+        StreamMetrics metrics = new StreamMetrics(false);
+        LogEventSink sink = (timestamp, ingestionTime, message) -> false;
+        assertSame(sink, metrics.track("a", sink));
+        metrics.observe("a", 1, 1);
+        assertTrue(metrics.toReport(0, null, null).isEmpty());
+    }
+
+    @Test
+    public void writePrometheusTextFile() throws Exception
+    {
+        StreamMetrics metrics = new StreamMetrics(true);
+        metrics.observe("app\"1", 1500, 2500);
+        Path path = folder.getRoot().toPath().resolve("metrics.prom");
+        StreamMetrics.writePrometheus(path, "group", metrics.toReport(3000, null, "123"));
+
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        assertTrue(text.contains("# TYPE cloudwatch_logs_stream_last_event_timestamp_seconds gauge\n"));
+        assertTrue(text.contains("cloudwatch_logs_stream_last_event_timestamp_seconds{log_group=\"group\",log_stream=\"app\\\"1\",account=\"123\"} 1.5\n"));
+        assertTrue(text.contains("cloudwatch_logs_stream_age_seconds{log_group=\"group\",log_stream=\"app\\\"1\",account=\"123\"} 1.5\n"));
+        assertFalse(text.contains("cloudwatch_logs_stream_lag_seconds{"));
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+}
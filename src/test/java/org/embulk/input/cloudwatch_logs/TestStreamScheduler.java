@@ -0,0 +1,122 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.services.logs.model.LogStream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreamScheduler
+{
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void splitLargeStreamsByTime()
+    {
+        StreamScheduler scheduler = new StreamScheduler(null, null, 100 * MB, MB, 100);
+        List<ScheduledWork> works = scheduler.schedule(Arrays.asList(logStream("large", 1000, 2000, 350 * MB)), 0, -1);
+        assertEquals(4, works.size());
+        assertNull(works.get(0).getStartTime());
+        assertEquals(Long.valueOf(1250), works.get(0).getEndTime());
+        assertEquals(Long.valueOf(1250), works.get(1).getStartTime());
+        assertEquals(Long.valueOf(1750), works.get(3).getStartTime());
+        // lastEventTimestamp may lag behind, so the last range is open.
+        assertNull(works.get(3).getEndTime());
+        for (ScheduledWork work : works) {
+            assertFalse(work.isBatch());
+            assertEquals(Arrays.asList("large"), work.getLogStreamNames());
+        }
+    }
+
+    @Test
+    public void keepConfiguredTimeRange()
+    {
+        StreamScheduler scheduler = new StreamScheduler(1500L, 1900L, 100 * MB, MB, 100);
+        List<ScheduledWork> works = scheduler.schedule(Arrays.asList(logStream("large", 1000, 2000, 1000 * MB)), 0, -1);
+        assertEquals(4, works.size());
+        assertEquals(Long.valueOf(1500), works.get(0).getStartTime());
+        assertEquals(Long.valueOf(1600), works.get(1).getStartTime());
+        assertEquals(Long.valueOf(1900), works.get(3).getEndTime());
+    }
+
+    @Test
+    public void batchSmallStreams()
+    {
+        StreamScheduler scheduler = new StreamScheduler(null, null, 100 * MB, MB, 2);
+        List<LogStream> logStreams = new ArrayList<>();
+        logStreams.add(logStream("e", 1000, 2000, 10));
+        logStreams.add(logStream("d", 1000, 2000, 10));
+        logStreams.add(logStream("c", 1000, 2000, 10 * MB));
+        logStreams.add(logStream("b", 1000, 2000, 10));
+        logStreams.add(logStream("a", 1000, 2000, 10));
+        List<ScheduledWork> works = scheduler.schedule(logStreams, 3, -1);
+
+        // A batch is added when it is full, after the streams read by one task before it.
+        assertEquals(3, works.size());
+        assertFalse(works.get(0).isBatch());
+        assertEquals(Arrays.asList("c"), works.get(0).getLogStreamNames());
+        assertTrue(works.get(1).isBatch());
+        assertEquals(Arrays.asList("a", "b"), works.get(1).getLogStreamNames());
+        assertEquals(Arrays.asList("d", "e"), works.get(2).getLogStreamNames());
+        assertEquals(3, works.get(2).getTarget());
+    }
+
+    @Test
+    public void sizeStreamsFromLogGroupBytes()
+    {
+        StreamScheduler scheduler = new StreamScheduler(null, null, 100 * MB, MB, 100);
+        List<LogStream> logStreams = Arrays.asList(
+                logStream("large", 1000, 1999, 0),    // 1000 ms, about 293 MB
+                logStream("medium", 1000, 1009, 0),   // 10 ms, 3000 KB
+                logStream("small", 1000, 1000, 0),    // 1 ms, 300 KB
+                logStream("tiny", 1000, 1000, 0));    // 1 ms, 300 KB
+        // storedBytes of the log group is 300 KB per millisecond of the streams.
+        List<ScheduledWork> works = scheduler.schedule(logStreams, 0, LoadPlanner.bytesPerMilli(logStreams, 1012 * 300 * 1024L));
+
+        assertEquals(3 + 1 + 1, works.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Arrays.asList("large"), works.get(i).getLogStreamNames());
+        }
+        assertFalse(works.get(3).isBatch());
+        assertEquals(Arrays.asList("medium"), works.get(3).getLogStreamNames());
+        assertTrue(works.get(4).isBatch());
+        assertEquals(Arrays.asList("small", "tiny"), works.get(4).getLogStreamNames());
+    }
+
+    @Test
+    public void batchStreamsOfUnknownSizeByCount()
+    {
+        StreamScheduler scheduler = new StreamScheduler(null, null, 100 * MB, MB, 100);
+        List<LogStream> logStreams = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            logStreams.add(logStream(String.format("unknown-%03d", i), 1000, 2000, 0));
+        }
+        logStreams.add(logStream("small", 1000, 2000, 10));
+        List<ScheduledWork> works = scheduler.schedule(logStreams, 0, -1);
+
+        // Streams of unknown size are not packed with streams of known size.
+        assertEquals(3 + 1, works.size());
+        assertEquals(100, works.get(0).getLogStreamNames().size());
+        assertEquals("unknown-000", works.get(0).getLogStreamNames().get(0));
+        assertEquals(100, works.get(1).getLogStreamNames().size());
+        assertEquals(Arrays.asList("small"), works.get(2).getLogStreamNames());
+        assertEquals(50, works.get(3).getLogStreamNames().size());
+        assertEquals("unknown-249", works.get(3).getLogStreamNames().get(49));
+        for (ScheduledWork work : works) {
+            assertTrue(work.isBatch());
+        }
+    }
+
+    private static LogStream logStream(String name, long first, long last, long storedBytes)
+    {
+        return new LogStream().withLogStreamName(name).withFirstEventTimestamp(first)
+                .withLastEventTimestamp(last).withStoredBytes(storedBytes);
+    }
+}
@@ -0,0 +1,139 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+
+import org.embulk.spi.DataException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.CloudWatchLogsDrainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestStreamingLogEventsClient
+{
+    private static final String PAGE = "{\"events\":["
+            + "{\"timestamp\":1,\"message\":\"first\",\"ingestionTime\":11},"
+            + "{\"ingestionTime\":12,\"extra\":{\"a\":[1]},\"message\":\"second\",\"timestamp\":2},"
+            + "{\"timestamp\":3,\"message\":\"third\",\"ingestionTime\":13}],"
+            + "\"nextForwardToken\":\"f/2\",\"nextBackwardToken\":\"b/1\"}";
+
+    private final StreamingLogEventsClient client = newClient("us-east-1");
+
+    @After
+    public void close() throws IOException
+    {
+        client.close();
+    }
+
+    @Test
+    public void decodeEventsAndForwardToken() throws IOException
+    {
+        final List<String> events = new ArrayList<>();
+        StreamingLogEventsClient.PageEnd end = client.decode(page(PAGE), (timestamp, ingestionTime, message) -> {
+            events.add(timestamp + " " + ingestionTime + " " + message);
+            return false;
+        });
+        assertFalse(end.isStopped());
+        assertEquals("f/2", end.getNextForwardToken());
+        assertEquals(3, events.size());
+        assertEquals("1 11 first", events.get(0));
+        assertEquals("2 12 second", events.get(1));
+        assertEquals("3 13 third", events.get(2));
+    }
+
+    @Test
+    public void stopWhenSinkIsDone() throws IOException
+    {
+        final List<String> events = new ArrayList<>();
+        StreamingLogEventsClient.PageEnd end = client.decode(page(PAGE), (timestamp, ingestionTime, message) -> {
+            events.add(message);
+            return events.size() == 2;
+        });
+        assertTrue(end.isStopped());
+        assertNull(end.getNextForwardToken());
+        assertEquals(2, events.size());
+    }
+
+    @Test(expected = DataException.class)
+    public void failWithoutForwardToken() throws IOException
+    {
+        client.decode(page("{\"events\":[{\"timestamp\":1,\"message\":\"first\"}]}"),
+                      (timestamp, ingestionTime, message) -> false);
+    }
+
+    @Test
+    public void readMissingMessageAsEmpty() throws IOException
+    {
+        final List<String> events = new ArrayList<>();
+        CloudWatchLogsDrainer.ResumingSink sink = new CloudWatchLogsDrainer.ResumingSink((timestamp, ingestionTime, message) -> {
+            events.add(message);
+            return false;
+        });
+        sink.restart();
+        StreamingLogEventsClient.PageEnd end = client.decode(
+                page("{\"events\":[{\"timestamp\":1,\"ingestionTime\":11}],\"nextForwardToken\":\"f/1\"}"), sink);
+        assertEquals("f/1", end.getNextForwardToken());
+        assertEquals(1, events.size());
+        assertEquals("", events.get(0));
+    }
+
+    @Test
+    public void replayPartlyWrittenPage() throws IOException
+    {
+        final List<String> events = new ArrayList<>();
+        CloudWatchLogsDrainer.ResumingSink sink = new CloudWatchLogsDrainer.ResumingSink((timestamp, ingestionTime, message) -> {
+            events.add(message);
+            return false;
+        });
+        // The connection breaks after the second event.
+        sink.restart();
+        try {
+            client.decode(page(PAGE.substring(0, PAGE.indexOf("{\"timestamp\":3"))), sink);
+            fail();
+        }
+        catch (IOException ex) {
+            // expected
+        }
+        assertEquals(2, events.size());
+
+        // The retried page is decoded from its beginning.
+        sink.restart();
+        assertEquals("f/2", client.decode(page(PAGE), sink).getNextForwardToken());
+        assertEquals(3, events.size());
+        assertEquals("third", events.get(2));
+    }
+
+    @Test
+    public void resolveEndpointOfPartition() throws IOException
+    {
+        try (StreamingLogEventsClient china = newClient("cn-north-1")) {
+            assertEquals("https://logs.cn-north-1.amazonaws.com.cn", china.getEndpoint().toString());
+        }
+        assertEquals("https://logs.us-east-1.amazonaws.com", client.getEndpoint().toString());
+    }
+
+    private static StreamingLogEventsClient newClient(String region)
+    {
+        return new StreamingLogEventsClient(new AWSStaticCredentialsProvider(new BasicAWSCredentials("dummy", "dummy")),
+                                            region, new ClientConfiguration());
+    }
+
+    private static InputStream page(String json)
+    {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,117 @@
+package org.embulk.input.cloudwatch_logs;
+
+import org.embulk.spi.DataException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSubscriptionPayloadDecoder
+{
+    private final SubscriptionPayloadDecoder decoder = new SubscriptionPayloadDecoder();
+
+    @Test
+    public void splitLogEvents() throws Exception
+    {
+        String payload = encode("{\"messageType\":\"DATA_MESSAGE\",\"owner\":\"123456789012\",\"logGroup\":\"/app\","
+                                + "\"subscriptionFilters\":[\"all\"],\"logEvents\":["
+                                + "{\"id\":\"1\",\"timestamp\":1000,\"message\":\"first\"},"
+                                + "{\"id\":\"2\",\"extractedFields\":{\"a\":\"b\"},\"timestamp\":2000,\"message\":\"second \\u00e9\"},"
+                                + "{\"id\":\"3\",\"message\":\"no timestamp\"}]}");
+        final List<String> events = new ArrayList<>();
+        assertFalse(decoder.decode(payload, 3000, 4000, (timestamp, ingestionTime, message) -> {
+            assertEquals(4000, ingestionTime);
+            events.add(timestamp + " " + message);
+            return false;
+        }));
+        assertEquals(3, events.size());
+        assertEquals("1000 first", events.get(0));
+        assertEquals("2000 second \u00e9", events.get(1));
+        assertEquals("3000 no timestamp", events.get(2));
+    }
+
+    @Test
+    public void reuseBuffersForLargerPayloads() throws Exception
+    {
+        StringBuilder json = new StringBuilder("{\"logEvents\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"timestamp\":").append(i).append(",\"message\":\"event-").append(i).append("\"}");
+        }
+        json.append("]}");
+        final int[] count = new int[1];
+        for (String payload : new String[] {encode("{\"logEvents\":[{\"timestamp\":1,\"message\":\"event-1\"}]}"), encode(json.toString())}) {
+            count[0] = 0;
+            decoder.decode(payload, 0, 0, (timestamp, ingestionTime, message) -> {
+                assertEquals("event-" + timestamp, message);
+                count[0]++;
+                return false;
+            });
+        }
+        assertEquals(2000, count[0]);
+    }
+
+    @Test
+    public void stopWhenSinkIsDone() throws Exception
+    {
+        String payload = encode("{\"logEvents\":[{\"timestamp\":1,\"message\":\"a\"},{\"timestamp\":2,\"message\":\"b\"}]}");
+        final int[] count = new int[1];
+        assertTrue(decoder.decode(payload, 0, 0, (timestamp, ingestionTime, message) -> ++count[0] == 1));
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    public void skipControlMessages() throws Exception
+    {
+        String payload = encode("{\"messageType\":\"CONTROL_MESSAGE\",\"logEvents\":[{\"timestamp\":1,\"message\":\"CWL CONTROL MESSAGE\"}]}");
+        assertFalse(decoder.decode(payload, 0, 0, (timestamp, ingestionTime, message) -> {
+            fail();
+            return false;
+        }));
+    }
+
+    @Test
+    public void rejectInvalidPayloads() throws Exception
+    {
+        String valid = encode("{\"logEvents\":[]}");
+        for (String payload : new String[] {"not base64!", Base64.getEncoder().encodeToString("plain".getBytes(StandardCharsets.UTF_8)),
+                                             valid.substring(0, valid.length() - 8), encode("[1]")}) {
+            try {
+                decoder.decode(payload, 0, 0, (timestamp, ingestionTime, message) -> false);
+                fail(payload);
+            }
+            catch (DataException ex) {
+                // expected
+            }
+        }
+        // The decoder is usable after an invalid payload.
+        assertFalse(decoder.decode(valid, 0, 0, (timestamp, ingestionTime, message) -> false));
+    }
+
+    @Test
+    public void closeTwice() throws Exception
+    {
+        SubscriptionPayloadDecoder closed = new SubscriptionPayloadDecoder();
+        assertFalse(closed.decode(encode("{\"logEvents\":[]}"), 0, 0, (timestamp, ingestionTime, message) -> false));
+        closed.close();
+        closed.close();
+    }
+
+    private static String encode(String json) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+}
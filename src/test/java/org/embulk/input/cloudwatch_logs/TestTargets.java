@@ -0,0 +1,95 @@
+package org.embulk.input.cloudwatch_logs;
+
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.embulk.input.cloudwatch_logs.AbstractCloudwatchLogsInputPlugin.PluginTask;
+import static org.embulk.input.cloudwatch_logs.CloudwatchLogsInputPlugin.CloudWatchLogsPluginTask;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestTargets
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private CloudwatchLogsInputPlugin plugin;
+    private ConfigSource config;
+
+    @Before
+    public void setUp()
+    {
+        plugin = new CloudwatchLogsInputPlugin();
+        config = runtime.getExec().newConfigSource()
+                .set("log_group_name", "dummy")
+                .set("region", "us-east-1")
+                .set("targets", ImmutableList.of(
+                        ImmutableMap.of("region", "ap-northeast-1", "account", "111111111111"),
+                        ImmutableMap.of("role_arn", "arn:aws:iam::222222222222:role/reader")));
+    }
+
+    @Test
+    public void addRegionAndAccountColumns()
+    {
+        Schema schema = plugin.buildSchema(config.loadConfig(CloudWatchLogsPluginTask.class));
+        assertEquals(4, schema.getColumnCount());
+        assertEquals("region", schema.getColumn(2).getName());
+        assertEquals("account", schema.getColumn(3).getName());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void reserveRegionColumn()
+    {
+        plugin.buildSchema(config.set("column_name", "region").loadConfig(CloudWatchLogsPluginTask.class));
+    }
+
+    @Test
+    public void applyTarget()
+    {
+        PluginTask task = config.loadConfig(CloudWatchLogsPluginTask.class);
+        plugin.applyTarget(task, task.getTargets().get(0), 0);
+        assertEquals("ap-northeast-1", plugin.getRegion(task, task.getTargets().get(0)));
+        assertEquals("111111111111", AbstractCloudwatchLogsInputPlugin.getAccount(task, task.getTargets().get(0)));
+
+        task = config.loadConfig(CloudWatchLogsPluginTask.class);
+        plugin.applyTarget(task, task.getTargets().get(1), 1);
+        assertEquals("us-east-1", plugin.getRegion(task, task.getTargets().get(1)));
+        assertEquals("222222222222", AbstractCloudwatchLogsInputPlugin.getAccount(task, task.getTargets().get(1)));
+        assertEquals("arn:aws:iam::222222222222:role/reader", task.getRoleArn().get());
+    }
+
+    @Test
+    public void noAccountWithoutRole()
+    {
+        PluginTask task = config.set("targets", ImmutableList.of(ImmutableMap.of("region", "eu-west-1")))
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        plugin.applyTarget(task, task.getTargets().get(0), 0);
+        assertNull(AbstractCloudwatchLogsInputPlugin.getAccount(task, task.getTargets().get(0)));
+    }
+
+    @Test
+    public void assumeRoleInPartitionOfTarget()
+    {
+        PluginTask task = config.loadConfig(CloudWatchLogsPluginTask.class);
+        plugin.applyTarget(task, task.getTargets().get(0), 0);
+        assertEquals("https://sts.ap-northeast-1.amazonaws.com", plugin.getStsEndpointConfiguration(task).getServiceEndpoint());
+
+        task = config.set("targets", ImmutableList.of(ImmutableMap.of(
+                        "region", "cn-north-1", "role_arn", "arn:aws-cn:iam::333333333333:role/reader")))
+                .loadConfig(CloudWatchLogsPluginTask.class);
+        plugin.applyTarget(task, task.getTargets().get(0), 0);
+        AwsClientBuilder.EndpointConfiguration sts = plugin.getStsEndpointConfiguration(task);
+        assertEquals("https://sts.cn-north-1.amazonaws.com.cn", sts.getServiceEndpoint());
+        assertEquals("cn-north-1", sts.getSigningRegion());
+        assertEquals("333333333333", AbstractCloudwatchLogsInputPlugin.getAccount(task, task.getTargets().get(0)));
+    }
+}